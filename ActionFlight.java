@@ -1,42 +1,54 @@
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class ActionFlight {
 
-    // list all flights
-    public static void listAllFlights(List<Flight> flightList) {
-        System.out.println("Flights");
-        for (int i = 0; i < 55; i++) {
-            System.out.print("-");
-        }
-        System.out.println();
-        Flight.showInfoHeader();
-        for (int i = 0; i < 55; i++) {
-            System.out.print("-");
-        }
-        System.out.println();
-        List<Flight> tempList = new ArrayList<>(flightList);
-        Collections.sort(tempList, (o1, o2) -> {
-            if (o1.getDepartureTime() != o2.getDepartureTime()) {
-                return Integer.compare(o1.getDepartureTime(), o2.getDepartureTime());
-            } else {
-                return o1.getSource().getName().compareTo(o2.getSource().getName());
+    private static final String LINE = "-------------------------------------------------------";
+
+    // list all flights, or limit flights from offset in the same order
+    public static void listAllFlights(String[] words, Catalog catalog) {
+        int offset = 0;
+        int limit = Integer.MAX_VALUE;
+        try {
+            if (words.length >= 2) {
+                offset = Integer.parseInt(words[1]);
             }
-        });
-        if (tempList.size() > 0) {
-            for (Flight flight : tempList) {
-                flight.showInfo();
+            if (words.length >= 3) {
+                limit = Integer.parseInt(words[2]);
             }
-        } else {
+            if (offset < 0 || limit < 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: FLIGHTS [offset] [limit]");
+            return;
+        }
+        System.out.println("Flights");
+        System.out.println(LINE);
+        Flight.showInfoHeader();
+        System.out.println(LINE);
+        // the catalog keeps the flights sorted, a page only walks past the skipped ones
+        Iterator<Flight> iterator = catalog.getSchedule().iterator();
+        for (int i = 0; i < offset && iterator.hasNext(); i++) {
+            iterator.next();
+        }
+        int count = 0;
+        while (count < limit && iterator.hasNext()) {
+            iterator.next().showInfo();
+            count++;
+        }
+        if (count == 0) {
             System.out.println("(None)");
         }
     }
 
     // inner function, find flight by id
-    private static Flight getFlightById(String[] words, List<Flight> flightList) {
+    private static Flight getFlightById(String[] words, Catalog catalog) {
         int id;
         try {
             id = Integer.parseInt(words[1]);
@@ -44,7 +56,7 @@ public class ActionFlight {
             System.out.println("Invalid Flight ID.");
             return null;
         }
-        Flight flight = MyHelper.findFlightById(flightList, id);
+        Flight flight = catalog.getFlight(id);
         if (flight == null) {
             System.out.println("Invalid Flight ID.");
         }
@@ -52,8 +64,7 @@ public class ActionFlight {
     }
 
     // add a flight, if failed return -1, else return new flightId
-    public static int addFlight(String[] words, List<Flight> flightList,
-                                int flightId, List<Location> locationList) {
+    public static int addFlight(String[] words, int flightId, Catalog catalog, RouteCache routeCache) {
         if (words.length < 7) {
             System.out.println("Usage:   FLIGHT ADD <departure time> <from> <to> <capacity>");
             System.out.println("Example: FLIGHT ADD Monday 18:00 Sydney Melbourne 120");
@@ -77,12 +88,12 @@ public class ActionFlight {
             System.out.println("Source and destination cannot be the same place.");
             return -1;
         }
-        Location source = MyHelper.findLocationByName(locationList, start);
+        Location source = catalog.getLocation(start);
         if (source == null) {
             System.out.println("Invalid starting location.");
             return -1;
         }
-        Location destination = MyHelper.findLocationByName(locationList, end);
+        Location destination = catalog.getLocation(end);
         if (destination == null) {
             System.out.println("Invalid ending location.");
             return -1;
@@ -101,134 +112,148 @@ public class ActionFlight {
         if (checkConflict(flight) == -1) {
             return -1;
         }
-        flightList.add(flight);
-        source.addDeparture(flight);
-        destination.addArrival(flight);
+        addToSchedule(flight, catalog);
+        routeCache.scheduleChanged();
         System.out.printf("Successfully added Flight %d.%n", flightId);
         return flightId + 1;
     }
 
+    // add flight to the catalog and the routing adjacency of its locations
+    static void addToSchedule(Flight flight, Catalog catalog) {
+        catalog.addFlight(flight);
+        flight.getSource().addDeparture(flight);
+        flight.getDestination().addArrival(flight);
+    }
+
+    // remove flight from the catalog and the routing adjacency of its locations, no list scan
+    static void removeFromSchedule(Flight flight, Catalog catalog) {
+        catalog.removeFlight(flight);
+        flight.getSource().removeDeparture(flight);
+        flight.getDestination().removeArrival(flight);
+    }
+
     // check conflict
     private static int checkConflict(Flight flight) {
-        int flightId = flight.getId();
+        String message = getConflictMessage(flight);
+        if (message != null) {
+            System.out.println(message);
+            return -1;
+        }
+        return 0;
+    }
+
+    // conflict message of a new flight, null if it does not clash with the schedule
+    private static String getConflictMessage(Flight flight) {
         Location source = flight.getSource();
         Location destination = flight.getDestination();
-        Location.FlightInfo departureInfo = new Location.FlightInfo(flightId,
-                flight.getDepartureTime(), "Departure to", flight.getDestination().getName());
-        Location.FlightInfo arriveInfo = new Location.FlightInfo(flightId,
-                flight.getArriveTime(), "Arrival from", flight.getSource().getName());
-        List<Location.FlightInfo> sourceDepartures = source.getDeparturesInfos();
-        List<Location.FlightInfo> sourceArrivals = source.getArrivalsInfos();
-        List<Location.FlightInfo> destinationDepartures = destination.getDeparturesInfos();
-        List<Location.FlightInfo> destinationArrivals = destination.getArrivalsInfos();
-        Location.FlightInfo check1 = hasConflict(departureInfo, sourceDepartures);
+        Flight check1 = source.getDepartureConflict(flight.getDepartureTime());
         if (check1 != null) {
-            System.out.printf("Scheduling conflict! This flight clashes with Flight %d departing from %s on %s.%n",
-                    check1.id, source.getName(), MyHelper.minuteInWeekToTimeStr(check1.time));
-            return -1;
+            return String.format("Scheduling conflict! This flight clashes with Flight %d departing from %s on %s.",
+                    check1.getId(), source.getName(), MyHelper.minuteInWeekToTimeStr(check1.getDepartureTime()));
         }
-        check1 = hasConflict(departureInfo, sourceArrivals);
+        check1 = source.getArrivalConflict(flight.getDepartureTime());
         if (check1 != null) {
-            System.out.printf("Scheduling conflict! This flight clashes with Flight %d arriving at %s on %s.%n",
-                    check1.id, source.getName(), MyHelper.minuteInWeekToTimeStr(check1.time));
-            return -1;
+            return String.format("Scheduling conflict! This flight clashes with Flight %d arriving at %s on %s.",
+                    check1.getId(), source.getName(), MyHelper.minuteInWeekToTimeStr(check1.getArriveTime()));
         }
-        check1 = hasConflict(arriveInfo, destinationDepartures);
+        check1 = destination.getDepartureConflict(flight.getArriveTime());
         if (check1 != null) {
-            System.out.printf("Scheduling conflict! This flight clashes with Flight %d departing from %s on %s.%n",
-                    check1.id, destination.getName(), MyHelper.minuteInWeekToTimeStr(check1.time));
-            return -1;
+            return String.format("Scheduling conflict! This flight clashes with Flight %d departing from %s on %s.",
+                    check1.getId(), destination.getName(), MyHelper.minuteInWeekToTimeStr(check1.getDepartureTime()));
         }
-        check1 = hasConflict(arriveInfo, destinationArrivals);
+        check1 = destination.getArrivalConflict(flight.getArriveTime());
         if (check1 != null) {
-            System.out.printf("Scheduling conflict! This flight clashes with Flight %d arriving at %s on %s.%n",
-                    check1.id, destination.getName(), MyHelper.minuteInWeekToTimeStr(check1.time));
-            return -1;
+            return String.format("Scheduling conflict! This flight clashes with Flight %d arriving at %s on %s.",
+                    check1.getId(), destination.getName(), MyHelper.minuteInWeekToTimeStr(check1.getArriveTime()));
         }
-        return 0;
+        return null;
     }
 
-    private static Location.FlightInfo hasConflict(Location.FlightInfo info,
-                                                   List<Location.FlightInfo> infoList) {
-        List<Location.FlightInfo> tempList = new ArrayList<>(infoList);
-        tempList.add(info);
+    // list every pair of flights less than an hour apart at the same location
+    public static void validateSchedule(List<Location> locationList) {
+        List<Location> tempList = new ArrayList<>(locationList);
         Collections.sort(tempList);
-        int size = tempList.size(), index = tempList.indexOf(info);
-        for (int i = 0; i < size; i++) {
-            Location.FlightInfo data = tempList.get(i).copy();
-            data.minusWeek();
-            tempList.add(data);
-            data = tempList.get(i).copy();
-            data.plusWeek();
-            tempList.add(data);
-        }
-        Collections.sort(tempList);
-        if (index == 0) {
-            if (tempList.get(size + 1).time - info.time < 60) {
-                return tempList.get(size + 1);
-            }
-            //todo
-            if (info.time - tempList.get(size - 1).time < 60) {
-                return tempList.get(size - 1);
-            }
-        } else if (index == size - 1) {
-            //todo
-            if (tempList.get(2 * size).time - info.time < 60) {
-                return tempList.get(2 * size);
-            }
-            if (info.time - tempList.get(2 * size - 2).time < 60) {
-                return tempList.get(2 * size - 2);
+        // locations are swept in parallel, the results keep the alphabetical order
+        List<List<Location.FlightInfo[]>> conflictLists = tempList.parallelStream()
+                .map(Location::getConflicts)
+                .collect(Collectors.toList());
+        int count = 0;
+        for (int i = 0; i < tempList.size(); i++) {
+            for (Location.FlightInfo[] pair : conflictLists.get(i)) {
+                System.out.printf("Flight %d (%s %s, %s) clashes with Flight %d (%s %s, %s) at %s.%n",
+                        pair[0].id, pair[0].type, pair[0].location, MyHelper.minuteInWeekToTimeStr(pair[0].time),
+                        pair[1].id, pair[1].type, pair[1].location, MyHelper.minuteInWeekToTimeStr(pair[1].time),
+                        tempList.get(i).getName());
+                count++;
             }
+        }
+        if (count == 0) {
+            System.out.println("No scheduling conflicts.");
+        } else if (count == 1) {
+            System.out.println("Found 1 scheduling conflict.");
         } else {
-            if (tempList.get(size + index + 1).time - info.time < 60) {
-                return tempList.get(size + index + 1);
-            }
-            if (info.time - tempList.get(size + index - 1).time < 60) {
-                return tempList.get(size + index - 1);
-            }
+            System.out.printf("Found %d scheduling conflicts.%n", count);
         }
-        return null;
     }
 
     // import flights from file
-    public static int importFile(String[] words, List<Flight> flightList,
-                                 int flightId, List<Location> locationList) {
+    public static int importFile(String[] words, int flightId, Catalog catalog, RouteCache routeCache) {
         if (words.length < 3) {
             System.out.println("Error reading file.");
             return -1;
         }
         String filename = words[2];
+        // lines that clash with the schedule (or an earlier line) are invalid
+        boolean validate = false;
+        // parse chunks of the file on all cores, the flights are still added in file order
+        boolean parallel = false;
+        for (int i = 3; i < words.length; i++) {
+            validate |= words[i].equalsIgnoreCase("validate");
+            parallel |= words[i].equalsIgnoreCase("parallel");
+        }
         int err = 0; // invalid num
         int success = 0; // success num
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-            String line = br.readLine();
-            while (line != null) {
-                String[] infos = Flight.fromFileStr(line);
-                // departureTime source destination capacity passengersBooked
-                if (infos == null) {
-//                    err++;
-                } else {
-                    int departureTime = Integer.parseInt(infos[0]);
-                    Location source = MyHelper.findLocationByName(locationList, infos[1]);
-                    Location destination = MyHelper.findLocationByName(locationList, infos[2]);
-                    int capacity = Integer.parseInt(infos[3]);
-                    int passengersBooked = Integer.parseInt(infos[4]);
-                    if (source == null || destination == null) {
-                        err++;
-                    } else {
-                        Flight flight = new Flight(flightId, departureTime, source, destination, capacity, passengersBooked);
-                        flightId++;
-                        success++;
-                        flightList.add(flight);
-                        source.addDeparture(flight);
-                        destination.addArrival(flight);
+        try {
+            if (parallel) {
+                for (ParallelImport.Rows rows : ParallelImport.read(filename, catalog)) {
+                    err += rows.getInvalid();
+                    for (int i = 0; i < rows.size(); i++) {
+                        if (importFlight(rows.toFlight(i, flightId), validate, catalog)) {
+                            flightId++;
+                            success++;
+                        } else {
+                            err++;
+                        }
+                    }
+                }
+            } else {
+                try (FlightCsvReader reader = new FlightCsvReader(new FileInputStream(filename).getChannel(), catalog)) {
+                    int result = reader.next();
+                    while (result != FlightCsvReader.END) {
+                        // departureTime source destination capacity passengersBooked
+                        if (result == FlightCsvReader.INVALID) {
+                            err++;
+                        } else if (result == FlightCsvReader.VALID) {
+                            Flight flight = new Flight(flightId, reader.getDepartureTime(), reader.getSource(),
+                                    reader.getDestination(), reader.getCapacity(), reader.getPassengersBooked());
+                            if (importFlight(flight, validate, catalog)) {
+                                flightId++;
+                                success++;
+                            } else {
+                                err++;
+                            }
+                        }
+                        result = reader.next();
                     }
                 }
-                line = br.readLine();
             }
         } catch (IOException e) {
             System.out.println("Error reading file.");
             return flightId;
+        } finally {
+            if (success > 0) {
+                routeCache.scheduleChanged();
+            }
         }
         if (success == 1) {
             System.out.println("Imported 1 flight.");
@@ -243,18 +268,27 @@ public class ActionFlight {
         return flightId;
     }
 
+    // inner function, add an imported flight unless validating and it clashes
+    private static boolean importFlight(Flight flight, boolean validate, Catalog catalog) {
+        if (validate && getConflictMessage(flight) != null) {
+            return false;
+        }
+        addToSchedule(flight, catalog);
+        return true;
+    }
+
     // export flights to file
-    public static void exportFile(String[] words, List<Flight> flightList) {
+    public static void exportFile(String[] words, Catalog catalog) {
+        Collection<Flight> flightList = catalog.getFlights();
         if (words.length < 3) {
             System.out.println("Error writing file.");
             return;
         }
         String filename = words[2];
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filename))) {
+        try (CsvWriter out = new CsvWriter(new FileWriter(filename))) {
             for (Flight flight : flightList) {
-                bw.write(flight.toFileStr());
-                bw.newLine();
-                bw.flush();
+                flight.writeFileStr(out);
+                out.newLine();
             }
         } catch (IOException e) {
             System.out.println("Error writing file.");
@@ -268,16 +302,16 @@ public class ActionFlight {
     }
 
     // view flight info
-    public static void viewFlight(String[] words, List<Flight> flightList) {
-        Flight flight = getFlightById(words, flightList);
+    public static void viewFlight(String[] words, Catalog catalog) {
+        Flight flight = getFlightById(words, catalog);
         if (flight != null) {
             flight.showFullInfo();
         }
     }
 
     // book flight
-    public static void bookFlight(String[] words, List<Flight> flightList) {
-        Flight flight = getFlightById(words, flightList);
+    public static void bookFlight(String[] words, Catalog catalog, RouteCache routeCache) {
+        Flight flight = getFlightById(words, catalog);
         if (flight != null) {
             int bookNum;
             if (words.length == 3) {
@@ -293,17 +327,13 @@ public class ActionFlight {
                     return;
                 }
             }
-            int canBook = flight.canBook(bookNum);
-            double costAll = 0;
-            for (int i = 0; i < canBook; i++) {
-                costAll += flight.getTicketPrice();
-                flight.book();
-                if (flight.isFull()) {
-                    break;
-                }
+            Flight.Reservation reservation = flight.reserve(bookNum);
+            if (reservation.getSeats() > 0) {
+                catalog.bookingChanged(flight);
+                routeCache.bookingChanged();
             }
             System.out.printf("Booked %d passengers on flight %d for a total cost of $%.2f%n",
-                    canBook, flight.getId(), costAll);
+                    reservation.getSeats(), flight.getId(), reservation.getCost());
             if (flight.isFull()) {
                 System.out.println("Flight is now full.");
             }
@@ -311,12 +341,11 @@ public class ActionFlight {
     }
 
     // remove flight
-    public static void removeFlight(String[] words, List<Flight> flightList) {
-        Flight flight = getFlightById(words, flightList);
+    public static void removeFlight(String[] words, Catalog catalog, RouteCache routeCache) {
+        Flight flight = getFlightById(words, catalog);
         if (flight != null) {
-            boolean result = flightList.remove(flight);
-            flight.getSource().removeDeparture(flight);
-            flight.getDestination().removeArrival(flight);
+            removeFromSchedule(flight, catalog);
+            routeCache.scheduleChanged();
             System.out.printf("Removed Flight %d, %s %s --> %s, from the flight schedule.%n",
                     flight.getId(), MyHelper.minuteInWeekToTimeStrSimple(flight.getDepartureTime()),
                     flight.getSource().getName(), flight.getDestination().getName());
@@ -324,10 +353,12 @@ public class ActionFlight {
     }
 
     // reset flight
-    public static void resetFlight(String[] words, List<Flight> flightList) {
-        Flight flight = getFlightById(words, flightList);
+    public static void resetFlight(String[] words, Catalog catalog, RouteCache routeCache) {
+        Flight flight = getFlightById(words, catalog);
         if (flight != null) {
             flight.setPassengersBooked(0);
+            catalog.bookingChanged(flight);
+            routeCache.bookingChanged();
             System.out.printf("Reset passengers booked to 0 for Flight %d, %s %s --> %s.%n",
                     flight.getId(), MyHelper.minuteInWeekToTimeStrSimple(flight.getDepartureTime()),
                     flight.getSource().getName(), flight.getDestination().getName());
@@ -19,9 +19,9 @@ public class ActionLocation {
     }
 
     // inner function, find location by name
-    private static Location getLocationByName(String[] words, List<Location> locationList) {
+    private static Location getLocationByName(String[] words, Catalog catalog) {
         String name = words[1];
-        Location location = MyHelper.findLocationByName(locationList, name);
+        Location location = catalog.getLocation(name);
         if (location == null) {
             System.out.println("Invalid location name.");
         }
@@ -29,9 +29,9 @@ public class ActionLocation {
     }
 
     // inner function, find location by name, different error message
-    private static Location getLocationByName2(String[] words, List<Location> locationList) {
+    private static Location getLocationByName2(String[] words, Catalog catalog) {
         String name = words[1];
-        Location location = MyHelper.findLocationByName(locationList, name);
+        Location location = catalog.getLocation(name);
         if (location == null) {
             System.out.println("This location does not exist in the system.");
         }
@@ -39,7 +39,7 @@ public class ActionLocation {
     }
 
     // add location
-    public static int addLocation(String[] words, List<Location> locationList, int locationId) {
+    public static int addLocation(String[] words, List<Location> locationList, int locationId, Catalog catalog) {
         if (words.length < 6) {
             System.out.println("Usage:   LOCATION ADD <name> <lat> <long> <demand_coefficient>");
             System.out.println("Example: LOCATION ADD Sydney -33.847927 150.651786 0.2");
@@ -49,7 +49,7 @@ public class ActionLocation {
         String latS = words[3];
         String lonS = words[4];
         String coefficientS = words[5];
-        if (MyHelper.findLocationByName(locationList, name) != null) {
+        if (catalog.getLocation(name) != null) {
             System.out.println("This location already exists.");
             return -1;
         }
@@ -83,15 +83,16 @@ public class ActionLocation {
             System.out.println("Invalid demand coefficient. It must be a number between -1 and +1.");
             return -1;
         }
-        Location location = new Location(name, lat, lon, coefficient);
+        Location location = new Location(locationId, name, lat, lon, coefficient);
         locationList.add(location);
+        catalog.addLocation(location);
         System.out.printf("Successfully added location %s.%n", name);
         return locationId + 1;
     }
 
     // import locations from file
     public static int importFile(String[] words, List<Location> locationList,
-                                 int locationId) {
+                                 int locationId, Catalog catalog) {
         if (words.length < 3) {
             System.out.println("Error reading file.");
             return -1;
@@ -104,7 +105,7 @@ public class ActionLocation {
             while (line != null) {
                 String[] infos = Location.fromFileStr(line);
                 // name, latitude, longitude, coefficient
-                if (infos == null || MyHelper.findLocationByName(locationList, infos[0]) != null) {
+                if (infos == null || catalog.getLocation(infos[0]) != null) {
                     err++;
                 } else {
                     double latitude = Double.parseDouble(infos[1]);
@@ -121,10 +122,11 @@ public class ActionLocation {
                         valid = false;
                     }
                     if (valid) {
-                        Location location = new Location(infos[0], latitude, longitude, coefficient);
+                        Location location = new Location(locationId, infos[0], latitude, longitude, coefficient);
                         locationId++;
                         success++;
                         locationList.add(location);
+                        catalog.addLocation(location);
                     } else {
                         err++;
                     }
@@ -135,6 +137,9 @@ public class ActionLocation {
             System.out.println("Error reading file.");
             return -1;
         }
+        if (success > 0) {
+            DistanceMatrix.build(locationList);
+        }
         if (success == 1) {
             System.out.println("Imported 1 location.");
         } else {
@@ -157,11 +162,10 @@ public class ActionLocation {
         String filename = words[2];
         List<Location> tempList = new ArrayList<>(locationList);
         Collections.sort(tempList);
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filename))) {
+        try (CsvWriter out = new CsvWriter(new FileWriter(filename))) {
             for (Location location : tempList) {
-                bw.write(location.toFileStr());
-                bw.newLine();
-                bw.flush();
+                location.writeFileStr(out);
+                out.newLine();
             }
         } catch (IOException e) {
             System.out.println("Error writing file.");
@@ -175,56 +179,85 @@ public class ActionLocation {
     }
 
     // view location
-    public static void viewLocation(String[] words, List<Location> locationList) {
-        Location location = getLocationByName(words, locationList);
+    public static void viewLocation(String[] words, Catalog catalog) {
+        Location location = getLocationByName(words, catalog);
         if (location != null) {
             location.showFullInfo();
         }
     }
 
-    private static void showFlightsInfo(String name, List<Location.FlightInfo> infoList) {
-        System.out.println(name);
-        for (int i = 0; i < 55; i++) {
-            System.out.print("-");
+    private static final String LINE = "-------------------------------------------------------";
+
+    // board of a location, rows come in time order from the location itself
+    private static void showFlightsInfo(String[] words, Location location, boolean arrivals, boolean departures) {
+        int[] window = getTimeWindow(words);
+        if (window == null) {
+            return;
         }
-        System.out.println();
+        System.out.println(location.getName());
+        System.out.println(LINE);
         Location.FlightInfo.showInfoHeader();
-        for (int i = 0; i < 55; i++) {
-            System.out.print("-");
-        }
-        System.out.println();
-        if (infoList.size() > 0) {
-            for (Location.FlightInfo info : infoList) {
-                info.showInfo();
+        System.out.println(LINE);
+        location.showBoard(arrivals, departures, window[0], window[1]);
+    }
+
+    // read [from <day> <hh:mm>] [to <day> <hh:mm>] after the location name
+    // return {from, to} in minutes of week, the whole week if not given
+    // if invalid, return null and print message
+    private static int[] getTimeWindow(String[] words) {
+        int[] window = {0, Integer.MAX_VALUE};
+        int i = 2;
+        try {
+            if (i < words.length && words[i].equalsIgnoreCase("from")) {
+                window[0] = getTime(words, i + 1);
+                i += 3;
             }
-        } else {
+            if (i < words.length && words[i].equalsIgnoreCase("to")) {
+                window[1] = getTime(words, i + 1);
+                i += 3;
+            }
+            if (i < words.length) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid time window. Use [from <day_of_week> <hour:minute>] [to <day_of_week> <hour:minute>], with 24h time.");
+            return null;
+        }
+        return window;
+    }
+
+    // inner function, minute in week of words[i] words[i + 1]
+    private static int getTime(String[] words, int i) throws IllegalArgumentException {
+        if (i + 1 >= words.length) {
+            throw new IllegalArgumentException();
         }
+        String date = words[i];
+        date = date.substring(0, 1).toUpperCase() + date.substring(1).toLowerCase();
+        MyHelper.Weekday weekday = MyHelper.Weekday.valueOf(date);
+        return MyHelper.getMinuteInWeek(weekday, words[i + 1]);
     }
 
     // schedule
-    public static void scheduleLocation(String[] words, List<Location> locationList) {
-        Location location = getLocationByName2(words, locationList);
+    public static void scheduleLocation(String[] words, Catalog catalog) {
+        Location location = getLocationByName2(words, catalog);
         if (location != null) {
-            List<Location.FlightInfo> infoList = location.getScheduleInfos();
-            showFlightsInfo(location.getName(), infoList);
+            showFlightsInfo(words, location, true, true);
         }
     }
 
     // arrival
-    public static void arrivalsLocation(String[] words, List<Location> locationList) {
-        Location location = getLocationByName2(words, locationList);
+    public static void arrivalsLocation(String[] words, Catalog catalog) {
+        Location location = getLocationByName2(words, catalog);
         if (location != null) {
-            List<Location.FlightInfo> infoList = location.getArrivalsInfos();
-            showFlightsInfo(location.getName(), infoList);
+            showFlightsInfo(words, location, true, false);
         }
     }
 
     // departure
-    public static void departuresLocation(String[] words, List<Location> locationList) {
-        Location location = getLocationByName2(words, locationList);
+    public static void departuresLocation(String[] words, Catalog catalog) {
+        Location location = getLocationByName2(words, catalog);
         if (location != null) {
-            List<Location.FlightInfo> infoList = location.getDeparturesInfos();
-            showFlightsInfo(location.getName(), infoList);
+            showFlightsInfo(words, location, false, true);
         }
     }
 }
@@ -1,67 +1,94 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class ActionTravel {
 
+    /**
+     * Immutable path of flights. Extending a path shares the legs before it with
+     * its parent, and the totals used for sorting are computed once when the path is built.
+     */
     public static class FlightPath {
-        public List<Flight> paths;
+        private final FlightPath parent;
+        private final Flight flight;
+        private final int num;
+        private final double totalCost;
+        private final int flightTime;
+        private final int layoverTime;
 
-        public FlightPath() {
-            this.paths = new ArrayList<>();
+        public FlightPath(Flight flight) {
+            this(null, flight);
         }
 
-        public FlightPath(FlightPath other) {
-            this.paths = new ArrayList<>(other.paths);
+        private FlightPath(FlightPath parent, Flight flight) {
+            this.parent = parent;
+            this.flight = flight;
+            if (parent == null) {
+                this.num = 1;
+                this.totalCost = flight.getTicketPrice();
+                this.flightTime = flight.getDuration();
+                this.layoverTime = 0;
+            } else {
+                this.num = parent.num + 1;
+                this.totalCost = parent.totalCost + flight.getTicketPrice();
+                this.flightTime = parent.flightTime + flight.getDuration();
+                this.layoverTime = parent.layoverTime + Flight.layover(parent.flight, flight);
+            }
+        }
+
+        // new path with one more leg, this path is not changed
+        public FlightPath extend(Flight flight) {
+            return new FlightPath(this, flight);
         }
 
         public int getNum() {
-            return this.paths.size();
+            return num;
         }
 
-        public void addFlight(Flight flight) {
-            this.paths.add(flight);
+        public Flight getLastFlight() {
+            return flight;
         }
 
         public Location getLastLocation() {
-            if (paths.isEmpty()) {
-                return null;
-            } else {
-                return paths.get(paths.size() - 1).getDestination();
+            return flight.getDestination();
+        }
+
+        // flights from the first leg to the last
+        public List<Flight> getFlights() {
+            Flight[] flights = new Flight[num];
+            for (FlightPath path = this; path != null; path = path.parent) {
+                flights[path.num - 1] = path.flight;
             }
+            return Arrays.asList(flights);
         }
 
         public double getTotalCost() {
-            return paths.stream().mapToDouble(Flight::getTicketPrice).sum();
+            return totalCost;
         }
 
         // all time
         public int getTotalDuration() {
-            return getLayoverTime() + getFlightTime();
+            return layoverTime + flightTime;
         }
 
         public int getStopovers() {
-            return Math.max(0, paths.size() - 2);
+            return Math.max(0, num - 2);
         }
 
         public int getLayoverTime() {
-            if (paths.size() < 2) {
-                return 0; //todo
-            } else {
-                int layover = 0;
-                for (int i = 0; i < paths.size() - 1; i++) {
-                    int minute = Flight.layover(paths.get(i), paths.get(i + 1));
-                    layover += minute;
-                }
-                return layover;
-            }
+            return layoverTime;
         }
 
         public String[] getLayoverStr() {
-            if (paths.size() < 2) {
+            if (num < 2) {
                 return new String[1]; //todo
             } else {
-                String[] layovers = new String[paths.size() - 1];
-                for (int i = 0; i < paths.size() - 1; i++) {
+                List<Flight> paths = getFlights();
+                String[] layovers = new String[num - 1];
+                for (int i = 0; i < num - 1; i++) {
                     int minute = Flight.layover(paths.get(i), paths.get(i + 1));
                     layovers[i] = String.format("LAYOVER %s at %s",
                             MyHelper.minuteToHourMinute(minute), paths.get(i).getDestination().getName());
@@ -72,32 +99,50 @@ public class ActionTravel {
 
         // flight time
         public int getFlightTime() {
-            return paths.stream().mapToInt(Flight::getDuration).sum();
+            return flightTime;
+        }
+
+        // compare flight ids leg by leg, both paths have the same number of legs
+        static int compareIds(FlightPath o1, FlightPath o2) {
+            if (o1 == o2) {
+                return 0;
+            }
+            int result = compareIds(o1.parent, o2.parent);
+            if (result == 0) {
+                result = Integer.compare(o1.flight.getId(), o2.flight.getId());
+            }
+            return result;
         }
 
         @Override
         public String toString() {
             return "FlightPath{" +
-                    "paths=" + Arrays.toString(paths.toArray()) +
+                    "paths=" + Arrays.toString(getFlights().toArray()) +
                     '}';
         }
 
+        // prices are read again, a cached path may have been built before some bookings
         public void showInfo() {
-            System.out.printf("%-18s%d%n", "Legs:", paths.size());
+            List<Flight> paths = getFlights();
+            double totalCost = 0;
+            for (Flight flight : paths) {
+                totalCost += flight.getTicketPrice();
+            }
+            System.out.printf("%-18s%d%n", "Legs:", num);
             System.out.printf("%-18s%s%n", "Total Duration:", MyHelper.minuteToHourMinute(getTotalDuration()));
-            System.out.printf("%-18s$%.2f%n", "Total Cost:", getTotalCost());
+            System.out.printf("%-18s$%.2f%n", "Total Cost:", totalCost);
             System.out.println("-------------------------------------------------------------");
             System.out.println("ID   Cost      Departure   Arrival     Source --> Destination");
             System.out.println("-------------------------------------------------------------");
             String[] layovers = getLayoverStr();
-            for (int i = 0; i < paths.size(); i++) {
+            for (int i = 0; i < num; i++) {
                 Flight flight = paths.get(i);
                 System.out.printf("%4d $%8.2f %9s   %9s   %s --> %s%n", flight.getId(),
                         flight.getTicketPrice(),
                         MyHelper.minuteInWeekToTimeStrSimple(flight.getDepartureTime()),
                         MyHelper.minuteInWeekToTimeStrSimple(flight.getArriveTime()),
                         flight.getSource().getName(), flight.getDestination().getName());
-                if (i < paths.size() - 1) {
+                if (i < num - 1) {
                     System.out.println(layovers[i]);
                 }
             }
@@ -108,64 +153,36 @@ public class ActionTravel {
     private static void findBest1() {
     }
 
-    private static List<FlightPath> findAllPaths(Location start, Location end, List<Flight> flightList, List<Location> locationList) {
-        //prepare
-        Map<Location, List<Flight>> map = new HashMap<>();
-        Queue<FlightPath> queue = new ArrayDeque<>();
-        List<FlightPath> results = new ArrayList<>();
-        for (Flight flight : flightList) {
-            List<Flight> list = map.getOrDefault(flight.getSource(), new ArrayList<>());
-            if (!list.contains(flight)) {
-                list.add(flight);
-            }
-            map.put(flight.getSource(), list);
-        }
-        for (Flight flight : map.getOrDefault(start, new ArrayList<>())) {
-            FlightPath fp = new FlightPath();
-            fp.addFlight(flight);
-            if (fp.getLastLocation().equals(end)) {
-                results.add(fp);
-            } else {
-                //todo already arrive?
-                queue.add(fp);
-            }
+    public static void sortN(String[] words, Catalog catalog, RouteCache routeCache) {
+        FlightPath path = findNth(words, catalog, routeCache);
+        if (path != null) {
+            path.showInfo();
         }
-        for (int i = 0; i < 3; i++) {
-            int size = queue.size();
-            for (int j = 0; j < size; j++) {
-                FlightPath tfp = queue.poll();
-                Location des = tfp.getLastLocation();
-                for (Flight flight : map.getOrDefault(des, new ArrayList<>())) {
-                    FlightPath fp = new FlightPath(tfp);
-                    fp.addFlight(flight);
-                    if (fp.getLastLocation().equals(end)) {
-                        results.add(fp);
-                    } else {
-                        //todo already arrive?
-                        queue.add(fp);
-                    }
-                }
-            }
-        }
-        return results.stream().filter(fp -> fp.getLastLocation().equals(end)).collect(Collectors.toList());
     }
 
-
-    public static void sortN(String[] words, List<Flight> flightList, List<Location> locationList) {
-        String[] params = checkParams(words, locationList);
+    // path of TRAVEL <from> <to> [sort [n]] [seats <n>], null with a message if there is none
+    private static FlightPath findNth(String[] words, Catalog catalog, RouteCache routeCache) {
+        int seats = getSeats(words);
+        if (seats < 0) {
+            return null;
+        }
+        if (seats > 0) {
+            words = Arrays.copyOf(words, words.length - 2);
+        }
+        String[] params = checkParams(words, catalog);
         if (params == null) {
-            return;
+            return null;
         }
-        Location start = MyHelper.findLocationByName(locationList, params[0]);
-        Location end = MyHelper.findLocationByName(locationList, params[1]);
+        Location start = catalog.getLocation(params[0]);
+        Location end = catalog.getLocation(params[1]);
         //???
         if (start == null) {
             System.out.println("Starting location not found.");
-            return;
+            return null;
         }
         if (end == null) {
             System.out.println("Ending location not found.");
-            return;
+            return null;
         }
         int n = 0;
         if (words.length >= 4 && words[3].equalsIgnoreCase("sort")) {
@@ -177,27 +194,28 @@ public class ActionTravel {
                 }
             }
         }
-        List<FlightPath> list = findAllPaths(start, end, flightList, locationList);
-        Collections.sort(list, Comparator.comparing(FlightPath::getTotalDuration));
-        n = Math.min(n, list.size() - 1);
-        if (list.size() == 0) {
-            System.out.printf("Sorry, no flights with 3 or less stopovers are available from %s to %s.%n",
-                    start.getName(), end.getName());
-        } else {
-            list.get(n).showInfo();
+        FlightPath path = routeCache.findNth(start, end, Math.max(0, n), seats);
+        if (path == null) {
+            showNoPath(start, end, seats);
         }
+        return path;
+    }
 
+    // show hit/miss counters of the route cache
+    public static void showCacheInfo(RouteCache routeCache) {
+        System.out.printf("Route cache: %d entries, %d hits, %d misses%n",
+                routeCache.size(), routeCache.getHits(), routeCache.getMisses());
     }
 
     // read source, destination, and property
     // if invalid, return null and print message
-    private static String[] checkParams(String[] words, List<Location> locationList) {
-        Location source = MyHelper.findLocationByName(locationList, words[1]);
+    private static String[] checkParams(String[] words, Catalog catalog) {
+        Location source = catalog.getLocation(words[1]);
         if (source == null) {
             System.out.println("Starting location not found.");
             return null;
         }
-        Location ending = MyHelper.findLocationByName(locationList, words[1]);
+        Location ending = catalog.getLocation(words[1]);
         if (ending == null) {
             System.out.println("Ending location not found.");
             return null;
@@ -219,98 +237,242 @@ public class ActionTravel {
     }
 
     // sort by property
-    public static void sortByProperty(String[] words, List<Flight> flightList, List<Location> locationList) {
-        String[] params = checkParams(words, locationList);
+    public static void sortByProperty(String[] words, Catalog catalog, RouteCache routeCache) {
+        FlightPath best = findByProperty(words, catalog, routeCache);
+        if (best != null) {
+            best.showInfo();
+        }
+    }
+
+    // path of TRAVEL <from> <to> <property> [seats <n>], null with a message if there is none
+    private static FlightPath findByProperty(String[] words, Catalog catalog, RouteCache routeCache) {
+        int seats = getSeats(words);
+        if (seats < 0) {
+            return null;
+        }
+        if (seats > 0) {
+            words = Arrays.copyOf(words, words.length - 2);
+        }
+        String[] params = checkParams(words, catalog);
         if (params == null) {
-            return;
+            return null;
         }
-        Location start = MyHelper.findLocationByName(locationList, params[0]);
-        Location end = MyHelper.findLocationByName(locationList, params[1]);
+        Location start = catalog.getLocation(params[0]);
+        Location end = catalog.getLocation(params[1]);
         //???
         if (start == null) {
             System.out.println("Starting location not found.");
-            return;
+            return null;
         }
         if (end == null) {
             System.out.println("Ending location not found.");
-            return;
+            return null;
         }
-        String property = params[2];
-        List<FlightPath> list = findAllPaths(start, end, flightList, locationList);
-//        System.out.println(list);
-        Comparator<FlightPath> costP = (o1, o2) -> {
-            double o1val = o1.getTotalCost();
-            double o2val = o2.getTotalCost();
-            if (o1val == o2val) {
-                return o1.getTotalDuration() - o2.getTotalDuration();
-            } else {
-                return o1val > o2val ? 1 : -1;
+        RouteSearch.Criterion criterion = RouteSearch.Criterion.fromProperty(params[2]);
+        FlightPath best = routeCache.findBest(start, end, criterion, seats);
+        if (best == null) {
+            showNoPath(start, end, seats);
+        }
+        return best;
+    }
+
+    /**
+     * Whether the words are TRAVEL <from> <to> [sort [n]] [seats <n>], ordered by duration,
+     * instead of TRAVEL <from> <to> <property> [seats <n>].
+     */
+    public static boolean isSortN(String[] words) {
+        return words.length == 3 || words[3].equals("sort") || words[3].equalsIgnoreCase("seats");
+    }
+
+    // n of a trailing seats <n>, 0 if there is none, -1 with a message if n is invalid
+    private static int getSeats(String[] words) {
+        if (words.length < 5 || !words[words.length - 2].equalsIgnoreCase("seats")) {
+            return 0;
+        }
+        try {
+            int seats = Integer.parseInt(words[words.length - 1]);
+            if (seats < 1) {
+                throw new NumberFormatException();
             }
-        };
-        Comparator<FlightPath> durationP = (o1, o2) -> {
-            double o1val = o1.getTotalDuration();
-            double o2val = o2.getTotalDuration();
-            if (o1val == o2val) {
-                return Double.compare(o1.getTotalCost(), o2.getTotalCost());
-            } else {
-                return o1val > o2val ? 1 : -1;
+            return seats;
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number of seats.");
+            return -1;
+        }
+    }
+
+    private static void showNoPath(Location start, Location end, int seats) {
+        if (seats > 0) {
+            System.out.printf("Sorry, no flights with 3 or less stopovers and %d free seats are available from %s to %s.%n",
+                    seats, start.getName(), end.getName());
+        } else {
+            System.out.printf("Sorry, no flights with 3 or less stopovers are available from %s to %s.%n",
+                    start.getName(), end.getName());
+        }
+    }
+
+    /**
+     * TRAVEL <from> <to> [sort [n]/property] BOOK <n>: book n passengers on every leg of the
+     * path the same command without BOOK shows, or on none of them. Legs are reserved in
+     * flight id order with one compare-and-set each, and released again if a later leg has
+     * too few seats, so concurrent bookings neither lock nor oversell.
+     */
+    public static void bookPath(String[] words, Catalog catalog, RouteCache routeCache) {
+        int passengers;
+        try {
+            passengers = Integer.parseInt(words[words.length - 1]);
+            if (passengers < 0) {
+                throw new NumberFormatException();
             }
-        };
-        Comparator<FlightPath> stopoverP = (o1, o2) -> {
-            int o1val = o1.getStopovers();
-            int o2val = o2.getStopovers();
-            if (o1val == o2val) {
-                if (Double.compare(o1.getTotalDuration(), o2.getTotalDuration()) == 0) {
-                    return Double.compare(o1.getTotalCost(), o2.getTotalCost());
-                } else {
-                    return Double.compare(o1.getTotalDuration(), o2.getTotalDuration());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number of passengers to book.");
+            return;
+        }
+        String[] search = Arrays.copyOf(words, words.length - 2);
+        FlightPath path;
+        if (isSortN(search)) {
+            path = findNth(search, catalog, routeCache);
+        } else {
+            path = findByProperty(search, catalog, routeCache);
+        }
+        if (path == null) {
+            return;
+        }
+        double[] totalCost = new double[1];
+        Flight full = bookAll(path.getFlights(), passengers, catalog, totalCost);
+        if (passengers > 0) {
+            // also after a rollback, a search may have seen the seats that were given back
+            routeCache.bookingChanged();
+        }
+        if (full != null) {
+            System.out.printf("Not enough seats on flight %d, no passengers booked.%n", full.getId());
+            return;
+        }
+        StringBuilder ids = new StringBuilder();
+        for (Flight flight : path.getFlights()) {
+            if (ids.length() > 0) {
+                ids.append(", ");
+            }
+            ids.append(flight.getId());
+        }
+        System.out.printf("Booked %d passengers on flights %s for a total cost of $%.2f%n",
+                passengers, ids, totalCost[0]);
+    }
+
+    /**
+     * Book passengers on every flight of legs, or on none of them. Flights are reserved in
+     * id order and released again if a later one has too few seats. Every flight whose
+     * count changed, even if only for a moment, is passed to catalog.bookingChanged after
+     * its last change. The journal records absolute counts, so a booking of another client
+     * in between could otherwise leave a count with the released seats as the last record.
+     *
+     * @param cost gets the total cost at index 0
+     * @return the flight with too few seats, null if all were booked
+     */
+    static Flight bookAll(List<Flight> legs, int passengers, Catalog catalog, double[] cost) {
+        List<Flight> ordered = new ArrayList<>(legs);
+        ordered.sort(Comparator.comparingInt(Flight::getId));
+        double totalCost = 0;
+        for (int i = 0; i < ordered.size(); i++) {
+            Flight.Reservation reservation = ordered.get(i).reserveAll(passengers);
+            if (reservation == null) {
+                for (int j = 0; j < i; j++) {
+                    ordered.get(j).release(passengers);
+                    if (passengers > 0) {
+                        catalog.bookingChanged(ordered.get(j));
+                    }
                 }
-            } else {
-                return o1val > o2val ? 1 : -1;
+                return ordered.get(i);
+            }
+            totalCost += reservation.getCost();
+        }
+        if (passengers > 0) {
+            for (Flight flight : ordered) {
+                catalog.bookingChanged(flight);
+            }
+        }
+        cost[0] = totalCost;
+        return null;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Location a = new Location(0, "Sydney", -33.847927, 150.651786, 0.5);
+        Location b = new Location(1, "Melbourne", -37.8136, 144.9631, -0.2);
+        int threadCount = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+        //test: itinerary bookings that roll back once the middle flight is full, racing single flight
+        //bookings on the first one, all journaled; the replay must end with the same counts
+        Path directory;
+        try {
+            directory = Files.createTempDirectory("travel-check");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Path path = directory.resolve("check.jrn");
+        Snapshot[] state = new Snapshot[1];
+        Journal journal;
+        try {
+            journal = Journal.open(path, state);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Catalog catalog = state[0].getCatalog();
+        catalog.setJournal(journal);
+        catalog.addLocation(a);
+        catalog.addLocation(b);
+        Flight[] route = new Flight[3];
+        for (int i = 0; i < route.length; i++) {
+            route[i] = new Flight(i, i * 60, a, b, i == 1 ? 1000 : 100000, 0);
+            ActionFlight.addToSchedule(route[i], catalog);
+        }
+        // the exact interleaving: another client books the first flight while a route holds seats on it
+        Flight held = new Flight(3, 0, a, b, 10, 0);
+        Flight full = new Flight(4, 60, a, b, 10, 10) {
+            @Override
+            public Reservation reserveAll(int seats) {
+                held.reserve(1);
+                catalog.bookingChanged(held);
+                return super.reserveAll(seats);
             }
         };
-        Comparator<FlightPath> layoverP = (o1, o2) -> {
-            int o1val = o1.getLayoverTime();
-            int o2val = o2.getLayoverTime();
-            if (o1val == o2val) {
-                if (Double.compare(o1.getTotalDuration(), o2.getTotalDuration()) == 0) {
-                    return Double.compare(o1.getTotalCost(), o2.getTotalCost());
+        ActionFlight.addToSchedule(held, catalog);
+        ActionFlight.addToSchedule(full, catalog);
+        ActionTravel.bookAll(Arrays.asList(held, full), 3, catalog, new double[1]);
+        MyHelper.runThreads(threadCount, index -> {
+            Random random = new Random(index);
+            double[] cost = new double[1];
+            for (int i = 0; i < 3000; i++) {
+                int f = random.nextInt(route.length - 1);
+                if (index % 2 == 0) {
+                    // TRAVEL ... BOOK over flights f and f + 1
+                    ActionTravel.bookAll(Arrays.asList(route[f + 1], route[f]), 1 + random.nextInt(5), catalog, cost);
                 } else {
-                    return Double.compare(o1.getTotalDuration(), o2.getTotalDuration());
+                    // FLIGHT <id> BOOK on the first of them
+                    if (route[f].reserve(1 + random.nextInt(3)).getSeats() > 0) {
+                        catalog.bookingChanged(route[f]);
+                    }
                 }
-            } else {
-                return o1val > o2val ? 1 : -1;
             }
-        };
-        Comparator<FlightPath> flightTimeP = (o1, o2) -> {
-            int o1val = o1.getFlightTime();
-            int o2val = o2.getFlightTime();
-            if (o1val == o2val) {
-                if (Double.compare(o1.getTotalDuration(), o2.getTotalDuration()) == 0) {
-                    return Double.compare(o1.getTotalCost(), o2.getTotalCost());
-                } else {
-                    return Double.compare(o1.getTotalDuration(), o2.getTotalDuration());
+        });
+        Snapshot[] replayed = new Snapshot[1];
+        try {
+            journal.close();
+            Journal.open(path, replayed).close();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
                 }
-            } else {
-                return o1val > o2val ? 1 : -1;
             }
-        };
-        if (property.equalsIgnoreCase("cost")) {
-            Collections.sort(list, costP);
-        } else if (property.equalsIgnoreCase("duration")) {
-            Collections.sort(list, durationP);
-        } else if (property.equalsIgnoreCase("stopovers")) {
-            Collections.sort(list, stopoverP);
-        } else if (property.equalsIgnoreCase("layover")) {
-            Collections.sort(list, layoverP);
-        } else if (property.equalsIgnoreCase("flight_time")) {
-            Collections.sort(list, flightTimeP);
-        }
-        if (list.size() == 0) {
-            System.out.printf("Sorry, no flights with 3 or less stopovers are available from %s to %s.%n",
-                    start.getName(), end.getName());
-        } else {
-            list.get(0).showInfo();
+            Files.delete(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (Flight flight : Arrays.asList(route[0], route[1], route[2], held)) {
+            Flight replay = replayed[0].getCatalog().getFlight(flight.getId());
+            MyHelper.check(String.format("Route flight %d: %d/%d booked, %d after replay", flight.getId(),
+                    flight.getPassengersBooked(), flight.getCapacity(), replay.getPassengersBooked()),
+                    replay.getPassengersBooked() == flight.getPassengersBooked()
+                            && flight.getPassengersBooked() <= flight.getCapacity());
         }
     }
 }
@@ -0,0 +1,155 @@
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/**
+ * Lookup tables of the schedule, owned by FlightScheduler: flights by id, flights in
+ * FLIGHTS order and locations by case-insensitive name. Every path that adds or removes
+ * a flight or location goes through here, so the tables match locationList, and the
+ * changes are passed on to the journal if there is one. The flights by id are also the
+ * list of all flights, since ids are handed out in the order flights are added.
+ */
+public class Catalog {
+    // order of the FLIGHTS listing, ids last so equal departures keep the order they were added
+    public static final Comparator<Flight> SCHEDULE_ORDER = Comparator
+            .comparingInt(Flight::getDepartureTime)
+            .thenComparing(flight -> flight.getSource().getName())
+            .thenComparingInt(Flight::getId);
+
+    // flight ids are handed out from a counter, so an array serves as the int -> flight map
+    private Flight[] flights;
+    private int flightCount;
+    private final Collection<Flight> flightsById = new FlightsById();
+    private final NavigableSet<Flight> schedule;
+    private final Map<String, Location> locations;
+    // null unless started with --journal
+    private Journal journal;
+
+    public Catalog() {
+        flights = new Flight[16];
+        schedule = new TreeSet<>(SCHEDULE_ORDER);
+        locations = new HashMap<>();
+    }
+
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    // find flight by id, not found return null
+    public Flight getFlight(int id) {
+        if (id < 0 || id >= flights.length) {
+            return null;
+        }
+        return flights[id];
+    }
+
+    public void addFlight(Flight flight) {
+        int id = flight.getId();
+        if (id >= flights.length) {
+            int length = flights.length;
+            while (length <= id) {
+                length *= 2;
+            }
+            Flight[] newFlights = new Flight[length];
+            System.arraycopy(flights, 0, newFlights, 0, flights.length);
+            flights = newFlights;
+        }
+        if (flights[id] == null) {
+            flightCount++;
+        }
+        flights[id] = flight;
+        schedule.add(flight);
+        if (journal != null) {
+            journal.flightAdded(flight);
+        }
+    }
+
+    public void removeFlight(Flight flight) {
+        if (getFlight(flight.getId()) == flight) {
+            flights[flight.getId()] = null;
+            flightCount--;
+            schedule.remove(flight);
+            if (journal != null) {
+                journal.flightRemoved(flight);
+            }
+        }
+    }
+
+    // passengers booked of flight changed
+    public void bookingChanged(Flight flight) {
+        if (journal != null) {
+            journal.bookingChanged(flight);
+        }
+    }
+
+    // all flights in SCHEDULE_ORDER, read only
+    public NavigableSet<Flight> getSchedule() {
+        return Collections.unmodifiableNavigableSet(schedule);
+    }
+
+    // all flights in id order, which is the order they were added in, read only
+    public Collection<Flight> getFlights() {
+        return flightsById;
+    }
+
+    // find location by name (ignore case), not found return null
+    public Location getLocation(String name) {
+        return locations.get(key(name));
+    }
+
+    public void addLocation(Location location) {
+        locations.put(key(location.getName()), location);
+        if (journal != null) {
+            journal.locationAdded(location);
+        }
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    // view of the flights array that skips the ids of removed flights
+    private class FlightsById extends AbstractCollection<Flight> {
+        @Override
+        public Iterator<Flight> iterator() {
+            return new Iterator<Flight>() {
+                private int next = skipRemoved(0);
+
+                @Override
+                public boolean hasNext() {
+                    return next < flights.length;
+                }
+
+                @Override
+                public Flight next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Flight flight = flights[next];
+                    next = skipRemoved(next + 1);
+                    return flight;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return flightCount;
+        }
+
+        private int skipRemoved(int id) {
+            while (id < flights.length && flights[id] == null) {
+                id++;
+            }
+            return id;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Buffered writer for FLIGHT/LOCATION EXPORT. Numbers and times are formatted by hand into
+ * one reusable char buffer, and the text is the same as Flight.toFileStr/Location.toFileStr,
+ * which go through String.format and BigDecimal. The buffer is written out when it is full
+ * and on close, so an export is not flushed line by line.
+ */
+public class CsvWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final Writer writer;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int size;
+    // digits of the last decimal(), most significant first
+    private final char[] digits = new char[20];
+    private int digitCount;
+    private int exponent;
+
+    public CsvWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public CsvWriter write(char c) throws IOException {
+        if (size == buffer.length) {
+            flushBuffer();
+        }
+        buffer[size++] = c;
+        return this;
+    }
+
+    public CsvWriter write(String str) throws IOException {
+        int length = str.length();
+        if (length > buffer.length - size) {
+            flushBuffer();
+            if (length > buffer.length) {
+                writer.write(str);
+                return this;
+            }
+        }
+        str.getChars(0, length, buffer, size);
+        size += length;
+        return this;
+    }
+
+    public CsvWriter newLine() throws IOException {
+        return write(LINE_SEPARATOR);
+    }
+
+    // same as %d
+    public CsvWriter writeInt(int value) throws IOException {
+        long rest = value;
+        if (rest < 0) {
+            write('-');
+            rest = -rest;
+        }
+        return writeDigits(rest, 1);
+    }
+
+    // same as MyHelper.minuteInWeekToTimeStr, sample Monday 09:00
+    public CsvWriter writeTime(int minuteInWeek) throws IOException {
+        if (minuteInWeek > 7 * 24 * 60) {
+            minuteInWeek = minuteInWeek % (7 * 24 * 60);
+        } else if (minuteInWeek < 0) {
+            minuteInWeek = (minuteInWeek + 7 * 24 * 60) % (7 * 24 * 60);
+        }
+        int day = minuteInWeek / 60 / 24;
+        int hour = (minuteInWeek - day * 60 * 24) / 60;
+        int minute = (minuteInWeek - day * 60 * 24 - hour * 60);
+        write(MyHelper.Weekday.values()[day].name()).write(' ');
+        return writeDigits(hour, 2).write(':').writeDigits(minute, 2);
+    }
+
+    // same as %.1f
+    public CsvWriter writeOneDecimal(double value) throws IOException {
+        if (!decimal(value)) {
+            return write(String.format("%.1f", value));
+        }
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            write('-');
+        }
+        long tenths = round(1);
+        return writeDigits(tenths / 10, 1).write('.').writeDigits(tenths % 10, 1);
+    }
+
+    /**
+     * Same as Location.coordinateToFileStr: 0 is "0.0", anything else is rounded to 6
+     * decimals and printed like BigDecimal.stripTrailingZeros().toString(), so 150 is "1.5E+2".
+     */
+    public CsvWriter writeCoordinate(double value) throws IOException {
+        if (value == 0 || !decimal(value)) {
+            return write(Location.coordinateToFileStr(value));
+        }
+        long unscaled = round(6);
+        if (unscaled == 0) {
+            return write('0');
+        }
+        int scale = 6;
+        while (unscaled % 10 == 0) {
+            unscaled /= 10;
+            scale--;
+        }
+        if (value < 0) {
+            write('-');
+        }
+        if (scale >= 0) {
+            long power = POWERS_OF_TEN[scale];
+            writeDigits(unscaled / power, 1);
+            if (scale > 0) {
+                write('.').writeDigits(unscaled % power, scale);
+            }
+            return this;
+        }
+        // scientific like 1E+1 or 1.5E+2
+        int length = 1;
+        while (length < 19 && unscaled >= POWERS_OF_TEN[length]) {
+            length++;
+        }
+        long power = POWERS_OF_TEN[length - 1];
+        writeDigits(unscaled / power, 1);
+        if (length > 1) {
+            write('.').writeDigits(unscaled % power, length - 1);
+        }
+        return write('E').write('+').writeInt(length - 1 - scale);
+    }
+
+    /**
+     * Shortest decimal digits of |value|, as Double.toString prints them, which are the
+     * digits String.format rounds from. False for values this writer leaves to String.format.
+     */
+    private boolean decimal(double value) {
+        value = Math.abs(value);
+        if (Double.isNaN(value) || value >= 1e9) {
+            return false;
+        }
+        String str = Double.toString(value);
+        digitCount = 0;
+        exponent = 0;
+        int point = -1;
+        int i = 0;
+        for (; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '.') {
+                point = digitCount;
+            } else if (c == 'E') {
+                exponent = Integer.parseInt(str.substring(i + 1));
+                break;
+            } else if (digitCount > 0 || c != '0') {
+                digits[digitCount++] = c;
+            } else if (point >= 0) {
+                // leading zero after the point
+                exponent--;
+            }
+        }
+        if (point < 0) {
+            point = digitCount;
+        }
+        // value is 0.digits * 10^(exponent + point)
+        exponent += point;
+        return true;
+    }
+
+    // digits of the last decimal() rounded half up to scale decimals, as one integer
+    private long round(int scale) {
+        // keep the digits with place value 10^-scale and above
+        int keep = exponent + scale;
+        long result = 0;
+        for (int i = 0; i < keep && i < digitCount; i++) {
+            result = result * 10 + (digits[i] - '0');
+        }
+        for (int i = digitCount; i < keep; i++) {
+            result *= 10;
+        }
+        if (keep >= 0 && keep < digitCount && digits[keep] >= '5') {
+            result++;
+        }
+        return result;
+    }
+
+    // value >= 0 with at least width digits, zero padded
+    private CsvWriter writeDigits(long value, int width) throws IOException {
+        int count = 1;
+        while (count < 19 && value >= POWERS_OF_TEN[count]) {
+            count++;
+        }
+        for (int i = count; i < width; i++) {
+            write('0');
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            write((char) ('0' + value / POWERS_OF_TEN[i] % 10));
+        }
+        return this;
+    }
+
+    private void flushBuffer() throws IOException {
+        writer.write(buffer, 0, size);
+        size = 0;
+    }
+
+    // write out what is left and flush once
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+            writer.flush();
+        } finally {
+            writer.close();
+        }
+    }
+}
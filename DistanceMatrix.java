@@ -0,0 +1,59 @@
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Symmetric table of the distances between all locations, indexed by location id.
+ * It is built in parallel after LOCATION IMPORT, and a location drops its reference
+ * when its coordinates change, so Location.distance falls back to the formula.
+ */
+public class DistanceMatrix {
+    // 2048 * 2048 doubles is 32MB, larger location lists are not tabulated
+    public static final int MAX_LOCATIONS = 2048;
+
+    private final int size;
+    private final double[] distances;
+
+    private DistanceMatrix(int size) {
+        this.size = size;
+        this.distances = new double[size * size];
+    }
+
+    public double get(int id1, int id2) {
+        return distances[id1 * size + id2];
+    }
+
+    // build a table for the given locations and attach it to them, null if there are too many
+    public static DistanceMatrix build(List<Location> locationList) {
+        int maxId = -1;
+        for (Location location : locationList) {
+            maxId = Math.max(maxId, location.getId());
+        }
+        if (maxId >= MAX_LOCATIONS) {
+            return null;
+        }
+        int size = maxId + 1;
+        DistanceMatrix matrix = new DistanceMatrix(size);
+        Location[] locations = new Location[size];
+        for (Location location : locationList) {
+            locations[location.getId()] = location;
+        }
+        IntStream.range(0, size).parallel().forEach(i -> {
+            if (locations[i] == null) {
+                return;
+            }
+            for (int j = i + 1; j < size; j++) {
+                if (locations[j] != null) {
+                    double distance = Location.haversine(locations[i], locations[j]);
+                    matrix.distances[i * size + j] = distance;
+                    matrix.distances[j * size + i] = distance;
+                }
+            }
+        });
+        for (Location location : locations) {
+            if (location != null) {
+                location.setMatrix(matrix);
+            }
+        }
+        return matrix;
+    }
+}
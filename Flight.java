@@ -1,13 +1,28 @@
+import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Flight {
+    // flights with more seats sum the load curve seat by seat instead of keeping a table
+    public static final int MAX_LOAD_TABLE = 1 << 16;
+
     //region basic
     private int id;
     private int departureTime;
     private Location source;
     private Location destination;
     private int capacity;
-    private int passengersBooked;
+    // changed with compare-and-set, so concurrent bookings never sell more than capacity
+    private final AtomicInteger passengersBooked;
+    // derived from source, destination and departure time, see updateRoute()
+    private double distance;
+    private int duration;
+    private int arriveTime;
+    // last ticket price and the number of passengers booked it was computed for, null if stale
+    private volatile TicketPrice ticketPrice;
+    // loadPrefix[i] = y(0) + ... + y((i - 1) / capacity), built on the first group booking
+    private volatile double[] loadPrefix;
 
     public Flight(int id, int departureTime, Location source,
                   Location destination, int capacity, int passengersBooked) {
@@ -16,7 +31,8 @@ public class Flight {
         this.source = source;
         this.destination = destination;
         this.capacity = capacity;
-        this.passengersBooked = passengersBooked;
+        this.passengersBooked = new AtomicInteger(passengersBooked);
+        updateRoute();
     }
 
     public int getId() {
@@ -33,6 +49,7 @@ public class Flight {
 
     public void setDepartureTime(int departureTime) {
         this.departureTime = departureTime;
+        updateRoute();
     }
 
     public Location getSource() {
@@ -41,6 +58,7 @@ public class Flight {
 
     public void setSource(Location source) {
         this.source = source;
+        updateRoute();
     }
 
     public Location getDestination() {
@@ -49,6 +67,7 @@ public class Flight {
 
     public void setDestination(Location destination) {
         this.destination = destination;
+        updateRoute();
     }
 
     public int getCapacity() {
@@ -57,17 +76,49 @@ public class Flight {
 
     public void setCapacity(int capacity) {
         this.capacity = capacity;
+        ticketPrice = null;
+        loadPrefix = null;
     }
 
     public int getPassengersBooked() {
-        return passengersBooked;
+        return passengersBooked.get();
     }
 
     public void setPassengersBooked(int passengersBooked) {
-        this.passengersBooked = passengersBooked;
+        this.passengersBooked.set(passengersBooked);
     }
     //endregion
 
+    // ticket price memo, replaced as a whole so readers never see half of it
+    private static class TicketPrice {
+        private final int passengersBooked;
+        private final double price;
+
+        private TicketPrice(int passengersBooked, double price) {
+            this.passengersBooked = passengersBooked;
+            this.price = price;
+        }
+    }
+
+    // seats taken by reserve() and what they cost
+    public static class Reservation {
+        private final int seats;
+        private final double cost;
+
+        private Reservation(int seats, double cost) {
+            this.seats = seats;
+            this.cost = cost;
+        }
+
+        public int getSeats() {
+            return seats;
+        }
+
+        public double getCost() {
+            return cost;
+        }
+    }
+
     //region string function
     // for debug
     @Override
@@ -78,7 +129,7 @@ public class Flight {
                 ", source=" + source.getName() +
                 ", destination=" + destination.getName() +
                 ", capacity=" + capacity +
-                ", passengersBooked=" + passengersBooked +
+                ", passengersBooked=" + passengersBooked.get() +
                 '}';
     }
 
@@ -86,7 +137,13 @@ public class Flight {
     public String toFileStr() {
         String timeStr = MyHelper.minuteInWeekToTimeStr(departureTime);
         return String.format("%s,%s,%s,%d,%d", timeStr, source.getName(),
-                destination.getName(), capacity, passengersBooked);
+                destination.getName(), capacity, passengersBooked.get());
+    }
+
+    // same text as toFileStr, without building it
+    public void writeFileStr(CsvWriter out) throws IOException {
+        out.writeTime(departureTime).write(',').write(source.getName()).write(',')
+                .write(destination.getName()).write(',').writeInt(capacity).write(',').writeInt(passengersBooked.get());
     }
 
     // read line str from csv file, and return basic params
@@ -150,7 +207,7 @@ public class Flight {
         System.out.printf("%-14s%s%n", "Duration:", getDurationStr());
         DecimalFormat priceFormat = new DecimalFormat("#.##");
         System.out.printf("%-14s$%.2f%n", "Ticket Cost:", getTicketPrice());
-        System.out.printf("%-14s%d/%d%n", "Passengers:", passengersBooked, capacity);
+        System.out.printf("%-14s%d/%d%n", "Passengers:", passengersBooked.get(), capacity);
     }
 
     // used in FLIGHT <id> command
@@ -171,18 +228,47 @@ public class Flight {
     }
     //endregion
 
-    //get the number of minutes this flight takes (round to nearest whole number)
-    public int getDuration() {
-        double distance = getDistance();
+    // recompute distance, duration and arrival time, called when their inputs change
+    void updateRoute() {
+        distance = Location.distance(source, destination);
         double hour = distance / 720d;
         double minute = hour * 60d;
-        return (int) Math.round(minute);
+        duration = (int) Math.round(minute);
+        arriveTime = departureTime + duration;
+        if (arriveTime > 7 * 24 * 60) {
+            arriveTime -= 7 * 24 * 60;
+        }
+        ticketPrice = null;
+    }
+
+    // called when the demand coefficient of source or destination changes
+    void invalidateTicketPrice() {
+        ticketPrice = null;
+    }
+
+    //get the number of minutes this flight takes (round to nearest whole number)
+    public int getDuration() {
+        return duration;
     }
 
     //implement the ticket price formula
     public double getTicketPrice() {
-        double coefficientDiff = destination.getCoefficient() - source.getCoefficient();
-        double x = passengersBooked / (double) capacity;
+        int booked = passengersBooked.get();
+        TicketPrice memo = ticketPrice;
+        if (memo == null || memo.passengersBooked != booked) {
+            memo = new TicketPrice(booked, computeTicketPrice(booked));
+            ticketPrice = memo;
+        }
+        return memo.price;
+    }
+
+    private double computeTicketPrice(int booked) {
+        double y = loadFactor(booked / (double) capacity);
+        return y * distance / 100d * getPer100km();
+    }
+
+    // y(x) of the ticket price formula, x is the share of seats booked
+    private static double loadFactor(double x) {
         double y;
         if (x <= 0.5) {
             y = -0.4 * x + 1;
@@ -191,33 +277,125 @@ public class Flight {
         } else {
             y = 0.2 / Math.PI * (Math.atan(20 * x - 14)) + 1;
         }
-        double distance = getDistance();
-        double per100km = 30 + 4 * coefficientDiff;
-        return y * distance / 100d * per100km;
+        return y;
+    }
+
+    private double getPer100km() {
+        double coefficientDiff = destination.getCoefficient() - source.getCoefficient();
+        return 30 + 4 * coefficientDiff;
+    }
+
+    /**
+     * Total cost of booking seats passengers one after another from the current load,
+     * which is what paying getTicketPrice() and calling book() for each of them adds up to.
+     * Uses prefix sums of y(x) over the seats, so the cost is the same for any group size.
+     *
+     * @param seats number of passengers, at most capacity - passengersBooked
+     * @return total cost
+     */
+    public double getBookingCost(int seats) {
+        return getBookingCost(passengersBooked.get(), seats);
+    }
+
+    /**
+     * Same as getBookingCost(seats), starting from booked passengers instead of the current
+     * load, so a reservation is charged for the seats it actually took.
+     */
+    public double getBookingCost(int booked, int seats) {
+        if (seats <= 0) {
+            return 0;
+        }
+        double ySum;
+        // imported flights can have a negative number booked, the table only covers 0..capacity
+        if (capacity <= MAX_LOAD_TABLE && booked >= 0 && booked + seats <= capacity) {
+            double[] prefix = loadPrefix;
+            if (prefix == null) {
+                // racing threads build the same table, any of them may be kept
+                prefix = new double[capacity + 1];
+                for (int i = 0; i < capacity; i++) {
+                    prefix[i + 1] = prefix[i] + loadFactor(i / (double) capacity);
+                }
+                loadPrefix = prefix;
+            }
+            ySum = prefix[booked + seats] - prefix[booked];
+        } else {
+            ySum = 0;
+            for (int i = booked; i < booked + seats; i++) {
+                ySum += loadFactor(i / (double) capacity);
+            }
+        }
+        return ySum * distance / 100d * getPer100km();
     }
 
     // how many passengers can book
     public int canBook(int num) {
-        if (isFull()) {
+        int booked = passengersBooked.get();
+        if (booked >= capacity) {
             return 0;
         } else {
-            return Math.min(capacity - passengersBooked, num);
+            return Math.min(capacity - booked, num);
+        }
+    }
+
+    /**
+     * Atomically book as many of seats as are free, up to capacity. Safe to call from many
+     * threads; only bookings on the same flight retry against each other.
+     *
+     * @return the seats taken and their cost at the load they were taken from
+     */
+    public Reservation reserve(int seats) {
+        while (true) {
+            int booked = passengersBooked.get();
+            int taken = Math.max(0, Math.min(capacity - booked, seats));
+            if (taken == 0) {
+                return new Reservation(0, 0);
+            }
+            if (passengersBooked.compareAndSet(booked, booked + taken)) {
+                return new Reservation(taken, getBookingCost(booked, taken));
+            }
         }
     }
 
+    /**
+     * Atomically book exactly seats passengers, or nothing if fewer seats are free.
+     *
+     * @return the reservation, null if the flight has fewer than seats free seats
+     */
+    public Reservation reserveAll(int seats) {
+        while (true) {
+            int booked = passengersBooked.get();
+            if (seats > capacity - booked) {
+                return null;
+            }
+            if (passengersBooked.compareAndSet(booked, booked + seats)) {
+                return new Reservation(seats, getBookingCost(booked, seats));
+            }
+        }
+    }
+
+    // give back seats taken by reserveAll, when a booking over several flights fails
+    public void release(int seats) {
+        passengersBooked.addAndGet(-seats);
+    }
+
     // book one ticket
     public void book() {
-        passengersBooked++;
+        book(1);
+    }
+
+    // book seats tickets at once, without checking capacity
+    public void book(int seats) {
+        passengersBooked.addAndGet(seats);
     }
 
     //return whether or not this flight is full
     public boolean isFull() {
-        return passengersBooked >= capacity;
+        return passengersBooked.get() >= capacity;
     }
 
     //get the distance of this flight in km
     public double getDistance() {
-        return Location.distance(source, destination);
+        return distance;
     }
 
     //get the layover time, in minutes, between two flights
@@ -234,10 +412,92 @@ public class Flight {
 
     // get arrive time
     public int getArriveTime() {
-        int arriveTime = departureTime + getDuration();
-        if (arriveTime > 7 * 24 * 60) {
-            arriveTime -= 7 * 24 * 60;
-        }
         return arriveTime;
     }
+
+    public static void main(String[] args) throws InterruptedException {
+        Location a = new Location(0, "Sydney", -33.847927, 150.651786, 0.5);
+        Location b = new Location(1, "Melbourne", -37.8136, 144.9631, -0.2);
+
+        //test: a group booking on an imported flight with a negative number booked
+        Flight negative = new Flight(0, 0, a, b, 100, -5);
+        Flight oneByOne = new Flight(0, 0, a, b, 100, -5);
+        double single = 0;
+        for (int i = 0; i < 3; i++) {
+            single += oneByOne.getTicketPrice();
+            oneByOne.book();
+        }
+        Reservation group = negative.reserve(3);
+        MyHelper.check(String.format("Negative booked: %d seats, $%.2f, $%.2f one by one", group.getSeats(),
+                group.getCost(), single), group.getSeats() == 3 && negative.getPassengersBooked() == -2
+                && Math.abs(group.getCost() - single) < 1e-9 * single);
+
+        //test: many threads reserve random group sizes on a few flights, capacity must hold
+        Flight[] flights = new Flight[4];
+        for (int i = 0; i < flights.length; i++) {
+            flights[i] = new Flight(i, i * 60, a, b, 50000 + i * 13337, 0);
+        }
+        int threadCount = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+        int[][] taken = new int[threadCount][flights.length];
+        double[][] paid = new double[threadCount][flights.length];
+        MyHelper.runThreads(threadCount, index -> {
+            Random random = new Random(index);
+            for (int i = 0; i < 200000; i++) {
+                int f = random.nextInt(flights.length);
+                Reservation reservation = flights[f].reserve(1 + random.nextInt(7));
+                if (flights[f].getPassengersBooked() > flights[f].getCapacity()) {
+                    throw new IllegalStateException("Overbooked flight " + f);
+                }
+                taken[index][f] += reservation.getSeats();
+                paid[index][f] += reservation.getCost();
+            }
+        });
+        for (int f = 0; f < flights.length; f++) {
+            int seats = 0;
+            double cost = 0;
+            for (int t = 0; t < threadCount; t++) {
+                seats += taken[t][f];
+                cost += paid[t][f];
+            }
+            Flight flight = flights[f];
+            // every seat sold once, and the charges add up to booking the whole flight at once
+            double expected = new Flight(f, f * 60, a, b, flight.getCapacity(), 0).getBookingCost(seats);
+            MyHelper.check(String.format("Flight %d: %d/%d booked, %d sold, $%.2f paid, $%.2f expected",
+                    f, flight.getPassengersBooked(), flight.getCapacity(), seats, cost, expected),
+                    seats == flight.getCapacity() && flight.getPassengersBooked() == seats
+                            && Math.abs(cost - expected) < 1e-6 * expected);
+        }
+
+        //test: two-leg bookings over overlapping flights are all or nothing
+        Flight[] legs = new Flight[3];
+        for (int i = 0; i < legs.length; i++) {
+            legs[i] = new Flight(i, i * 60, a, b, 10007 + i, 0);
+        }
+        int[][] booked = new int[threadCount][legs.length];
+        MyHelper.runThreads(threadCount, index -> {
+            Random random = new Random(index);
+            for (int i = 0; i < 100000; i++) {
+                // legs f and f + 1, reserved in id order and released if the second is full
+                int f = random.nextInt(legs.length - 1);
+                int seats = 1 + random.nextInt(5);
+                if (legs[f].reserveAll(seats) != null) {
+                    if (legs[f + 1].reserveAll(seats) != null) {
+                        booked[index][f] += seats;
+                        booked[index][f + 1] += seats;
+                    } else {
+                        legs[f].release(seats);
+                    }
+                }
+            }
+        });
+        for (int f = 0; f < legs.length; f++) {
+            int seats = 0;
+            for (int t = 0; t < threadCount; t++) {
+                seats += booked[t][f];
+            }
+            MyHelper.check(String.format("Leg %d: %d/%d booked, %d sold", f, legs[f].getPassengersBooked(),
+                    legs[f].getCapacity(), seats),
+                    seats == legs[f].getPassengersBooked() && seats <= legs[f].getCapacity());
+        }
+    }
 }
@@ -0,0 +1,340 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the lines of a flight csv file straight from a byte buffer into primitive fields,
+ * without building a String per line or field. Lines are read the way FLIGHT IMPORT always
+ * read them (like Flight.fromFileStr): fields are split like String.split, so trailing empty
+ * fields are dropped, and lines with a wrong layout or weekday are skipped silently.
+ * Location names go through a small memo before the catalog, so each distinct name is
+ * decoded once per file.
+ */
+public class FlightCsvReader implements Closeable {
+    // results of next()
+    public static final int END = -1;
+    public static final int SKIPPED = 0;
+    public static final int VALID = 1;
+    public static final int INVALID = 2;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long NOT_A_NUMBER = Long.MIN_VALUE;
+    private static final byte[][] WEEKDAYS = new byte[MyHelper.Weekday.values().length][];
+
+    static {
+        for (MyHelper.Weekday weekday : MyHelper.Weekday.values()) {
+            WEEKDAYS[weekday.ordinal()] = weekday.name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final ReadableByteChannel channel;
+    private final Catalog catalog;
+    // FileReader decodes with the default charset too
+    private final Charset charset = Charset.defaultCharset();
+    private ByteBuffer buffer;
+    private boolean eof;
+    // a line ended with '\r', so a '\n' right after it is part of the same line end
+    private boolean skipLF;
+    // start/end of the fields of the current line
+    private final int[] fields = new int[12];
+    private final int[] times = new int[6];
+    private final int[] clock = new int[6];
+
+    // name -> location memo, open addressing, unknown names are remembered as null
+    private byte[][] names = new byte[64][];
+    private Location[] locations = new Location[64];
+    private int nameCount;
+
+    // fields of the last VALID line
+    private int departureTime;
+    private Location source;
+    private Location destination;
+    private int capacity;
+    private int passengersBooked;
+
+    public FlightCsvReader(ReadableByteChannel channel, Catalog catalog) {
+        this.channel = channel;
+        this.catalog = catalog;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.buffer.flip();
+    }
+
+    // reads the lines of a buffer that holds whole lines, such as one mapped chunk of a file
+    public FlightCsvReader(ByteBuffer lines, Catalog catalog) {
+        this.channel = null;
+        this.catalog = catalog;
+        this.buffer = lines;
+        this.eof = true;
+    }
+
+    public int getDepartureTime() {
+        return departureTime;
+    }
+
+    public Location getSource() {
+        return source;
+    }
+
+    public Location getDestination() {
+        return destination;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getPassengersBooked() {
+        return passengersBooked;
+    }
+
+    /**
+     * Read and parse the next line, ended by "\n", "\r" or "\r\n" like BufferedReader.readLine.
+     *
+     * @return END at the end of the file, else SKIPPED, VALID (see the getters) or INVALID
+     */
+    public int next() throws IOException {
+        int scan = buffer.position();
+        while (true) {
+            if (skipLF) {
+                if (!buffer.hasRemaining()) {
+                    if (eof) {
+                        return END;
+                    }
+                    fill();
+                    continue;
+                }
+                if (buffer.get(buffer.position()) == '\n') {
+                    buffer.position(buffer.position() + 1);
+                }
+                skipLF = false;
+                scan = buffer.position();
+            }
+            int limit = buffer.limit();
+            int i = scan;
+            while (i < limit) {
+                byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    break;
+                }
+                i++;
+            }
+            int start = buffer.position();
+            if (i < limit) {
+                skipLF = buffer.get(i) == '\r';
+                buffer.position(i + 1);
+                return parseLine(start, i);
+            }
+            if (eof) {
+                if (start == limit) {
+                    return END;
+                }
+                buffer.position(limit);
+                return parseLine(start, limit);
+            }
+            // the line goes past the buffer, the part already scanned moves to the front
+            scan = i - start;
+            fill();
+        }
+    }
+
+    // keep the unread bytes and read more after them, the buffer grows for long lines
+    private void fill() throws IOException {
+        if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        if (channel.read(buffer) < 0) {
+            eof = true;
+        }
+        buffer.flip();
+    }
+
+    // departureTime,source,destination,capacity,passengersBooked with departureTime like Monday 09:00
+    private int parseLine(int start, int end) {
+        if (split(start, end, (byte) ',', fields, 5) != 5) {
+            return SKIPPED;
+        }
+        if (split(fields[0], fields[1], (byte) ' ', times, 2) != 2) {
+            return SKIPPED;
+        }
+        int day = weekday(times[0], times[1]);
+        if (day < 0) {
+            return SKIPPED;
+        }
+        // from here on the old parser threw on bad values, now the line is invalid
+        if (split(times[2], times[3], (byte) ':', clock, 2) != 2) {
+            return INVALID;
+        }
+        long hour = parseInt(clock[0], clock[1]);
+        long minute = parseInt(clock[2], clock[3]);
+        if (hour < 0 || hour > 24 || minute < 0 || minute > 60) {
+            return INVALID;
+        }
+        long capacity = parseInt(fields[6], fields[7]);
+        long passengersBooked = parseInt(fields[8], fields[9]);
+        if (capacity == NOT_A_NUMBER || passengersBooked == NOT_A_NUMBER) {
+            return INVALID;
+        }
+        Location source = findLocation(fields[2], fields[3]);
+        Location destination = findLocation(fields[4], fields[5]);
+        if (source == null || destination == null) {
+            return INVALID;
+        }
+        this.departureTime = day * 24 * 60 + (int) hour * 60 + (int) minute;
+        this.source = source;
+        this.destination = destination;
+        this.capacity = (int) capacity;
+        this.passengersBooked = (int) passengersBooked;
+        return VALID;
+    }
+
+    /**
+     * Split like String.split with a one-char regex: trailing empty fields are dropped.
+     *
+     * @param bounds start/end of each field, filled up to max fields
+     * @return number of fields, max + 1 if there are more than max
+     */
+    private int split(int start, int end, byte delimiter, int[] bounds, int max) {
+        if (start == end) {
+            bounds[0] = start;
+            bounds[1] = end;
+            return 1;
+        }
+        int count = 0;
+        int nonEmpty = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || buffer.get(i) == delimiter) {
+                if (count < max) {
+                    bounds[count * 2] = fieldStart;
+                    bounds[count * 2 + 1] = i;
+                }
+                count++;
+                if (i > fieldStart) {
+                    nonEmpty = count;
+                    if (nonEmpty > max) {
+                        return max + 1;
+                    }
+                }
+                fieldStart = i + 1;
+            }
+        }
+        return nonEmpty;
+    }
+
+    // ordinal of the weekday spelled exactly like MyHelper.Weekday, -1 if none
+    private int weekday(int start, int end) {
+        for (int day = 0; day < WEEKDAYS.length; day++) {
+            if (equals(WEEKDAYS[day], start, end)) {
+                return day;
+            }
+        }
+        return -1;
+    }
+
+    // same values as Integer.parseInt for ascii digits, NOT_A_NUMBER where it throws
+    private long parseInt(int start, int end) {
+        if (start == end) {
+            return NOT_A_NUMBER;
+        }
+        boolean negative = false;
+        int i = start;
+        byte first = buffer.get(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++i == end) {
+                return NOT_A_NUMBER;
+            }
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_A_NUMBER;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return NOT_A_NUMBER;
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            return NOT_A_NUMBER;
+        }
+        return value;
+    }
+
+    // location of the name bytes, looked up in the catalog the first time the name is seen
+    private Location findLocation(int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        int mask = names.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (names[index] != null) {
+            if (equals(names[index], start, end)) {
+                return locations[index];
+            }
+            index = (index + 1) & mask;
+        }
+        byte[] name = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            name[i - start] = buffer.get(i);
+        }
+        Location location = catalog.getLocation(new String(name, charset));
+        names[index] = name;
+        locations[index] = location;
+        if (++nameCount * 2 > names.length) {
+            growNames();
+        }
+        return location;
+    }
+
+    private void growNames() {
+        byte[][] oldNames = names;
+        Location[] oldLocations = locations;
+        names = new byte[oldNames.length * 2][];
+        locations = new Location[oldNames.length * 2];
+        int mask = names.length - 1;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != null) {
+                int hash = 0;
+                for (byte b : oldNames[i]) {
+                    hash = 31 * hash + b;
+                }
+                int index = (hash ^ (hash >>> 16)) & mask;
+                while (names[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                names[index] = oldNames[i];
+                locations[index] = oldLocations[i];
+            }
+        }
+    }
+
+    private boolean equals(byte[] bytes, int start, int end) {
+        if (bytes.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != buffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
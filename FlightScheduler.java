@@ -1,6 +1,17 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class FlightScheduler {
     //region singleton
@@ -15,14 +26,74 @@ public class FlightScheduler {
         return instance;
     }
 
-    private List<Flight> flightList;
     private List<Location> locationList;
     private int flightId;
     private int locationId;
+    private Catalog catalog;
+    private RouteCache routeCache;
+    // null unless started with --journal <path>
+    private Journal journal;
+    // port or unix:<path> of --server, null for the console
+    private String serverAddress;
+    // file of --batch, "-" for standard input, null for the console
+    private String batchFile;
+    // read: commands that only look at the schedule, and bookings; write: every other change
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     public FlightScheduler(String[] args) {
-        flightList = new ArrayList<>();
         locationList = new ArrayList<>();
+        catalog = new Catalog();
+        routeCache = new RouteCache();
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--journal")) {
+                openJournal(args[i + 1]);
+            } else if (args[i].equals("--server")) {
+                serverAddress = args[i + 1];
+            } else if (args[i].equals("--batch")) {
+                batchFile = args[i + 1];
+            }
+        }
+    }
+
+    // replay the journal into this scheduler and record every later change in it
+    private void openJournal(String filename) {
+        Snapshot[] recovered = new Snapshot[1];
+        try {
+            journal = Journal.open(Paths.get(filename), recovered);
+        } catch (IOException e) {
+            System.out.println("Error reading journal.");
+            return;
+        }
+        locationList = recovered[0].getLocationList();
+        catalog = recovered[0].getCatalog();
+        locationId = recovered[0].getLocationId();
+        flightId = recovered[0].getFlightId();
+        catalog.setJournal(journal);
+    }
+
+    // start a new journal generation from the current state, once the journal is large or the state was replaced
+    private void compactJournal(boolean force) {
+        if (journal != null && (force || journal.needsCompaction())) {
+            try {
+                journal.compact(locationList, catalog.getFlights(), locationId, flightId);
+            } catch (IOException e) {
+                System.out.println("Error writing journal.");
+            }
+        }
+    }
+
+    // write what is left of the journal, on EXIT or when the server stops, once running commands are done
+    void closeJournal() {
+        if (journal != null) {
+            lock.writeLock().lock();
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.out.println("Error writing journal.");
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
     }
     //endregion
 
@@ -33,11 +104,78 @@ public class FlightScheduler {
         // they will maintain the same values between testcases.
 
         // START YOUR CODE HERE
+        if (serverAddress != null) {
+            new Server(this, serverAddress).run();
+            return;
+        }
+        if (batchFile != null) {
+            runBatch();
+            return;
+        }
         Scanner scanner = new Scanner(System.in);
         while (true) {
             System.out.print("User: ");
             String line = scanner.nextLine();
-            String lineLower = line.toLowerCase();
+            if (!execute(line)) {
+                closeJournal();
+                System.out.println("Application closed.");
+                break;
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * --batch <file|->: the commands of a file or standard input, one per line, without the
+     * prompt. The output is the console output without the prompts, collected in a large
+     * buffer instead of going through System.out call by call, and written out when it is
+     * full and at the end. Stops after EXIT or at the end of the input.
+     */
+    private void runBatch() {
+        PrintStream console = System.out;
+        PrintStream out = new PrintStream(new BufferedOutputStream(console, 1 << 20), false);
+        System.setOut(out);
+        boolean exited = false;
+        try (BufferedReader reader = batchFile.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in))
+                : Files.newBufferedReader(Paths.get(batchFile), Charset.defaultCharset())) {
+            String line = reader.readLine();
+            while (line != null) {
+                if (!execute(line)) {
+                    exited = true;
+                    break;
+                }
+                System.out.println();
+                line = reader.readLine();
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading file.");
+        } finally {
+            // EXIT, the end of the file or an error reading it, the journal is closed once
+            closeJournal();
+            if (exited) {
+                System.out.println("Application closed.");
+            }
+            out.flush();
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Run one command line and print its output. Commands that only read the schedule,
+     * and bookings, which reserve seats without locking, hold the read lock and run at the
+     * same time; every other change holds the write lock, so it sees no command half done.
+     *
+     * @return false if the line is EXIT, which is left to the caller
+     */
+    public boolean execute(String line) {
+        String lineLower = line.toLowerCase();
+        if (lineLower.equalsIgnoreCase("exit")) {
+            return false;
+        }
+        Lock held = changesSchedule(line) ? lock.writeLock() : lock.readLock();
+        held.lock();
+        try {
             if (lineLower.startsWith("flight")) {
                 // flight flights
                 actionFlight(line);
@@ -49,37 +187,97 @@ public class FlightScheduler {
                 actionLocation(line);
             } else if (lineLower.startsWith("travel")) {
                 actionTravel(line);
+            } else if (lineLower.startsWith("snapshot")) {
+                actionSnapshot(line);
             } else if (lineLower.equalsIgnoreCase("help")) {
                 printHelpMessage();
-            } else if (lineLower.equalsIgnoreCase("exit")) {
-                System.out.println("Application closed.");
-                break;
             } else {
                 System.out.println("Invalid command. Type 'help' for a list of commands.");
             }
-            System.out.println();
+        } finally {
+            held.unlock();
         }
+        if (journal != null && journal.takeRefused()) {
+            System.out.println("Error writing journal.");
+        }
+        if ((lineLower.startsWith("flight") || lineLower.startsWith("location")) &&
+                journal != null && journal.needsCompaction()) {
+            // the snapshot of a compaction must not miss a booking made while it is written
+            lock.writeLock().lock();
+            try {
+                compactJournal(false);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return true;
+    }
+
+    // FLIGHT ADD/IMPORT/REMOVE/RESET, LOCATION ADD/IMPORT and SNAPSHOT LOAD
+    private static boolean changesSchedule(String line) {
+        String[] words = line.split("\\s+");
+        if (words.length < 2) {
+            return false;
+        }
+        if (words[0].equalsIgnoreCase("flight")) {
+            return words[1].equalsIgnoreCase("add") || words[1].equalsIgnoreCase("import") ||
+                    (words.length > 2 && (words[2].equalsIgnoreCase("remove") || words[2].equalsIgnoreCase("reset")));
+        } else if (words[0].equalsIgnoreCase("location")) {
+            return words[1].equals("add") || words[1].equals("import");
+        } else if (words[0].equalsIgnoreCase("snapshot")) {
+            return words[1].equalsIgnoreCase("load");
+        }
+        return false;
     }
 
     private void actionTravel(String command) {
         String[] words = command.split("\\s+");
         if (words[0].equalsIgnoreCase("travel")) {
-            if (words.length >= 3) {
-                if (words.length == 3 || words[3].equals("sort")) {
-                    ActionTravel.sortN(words, flightList, locationList);
+            if (words.length >= 5 && words[words.length - 2].equalsIgnoreCase("book")) {
+                ActionTravel.bookPath(words, catalog, routeCache);
+            } else if (words.length >= 3) {
+                if (ActionTravel.isSortN(words)) {
+                    ActionTravel.sortN(words, catalog, routeCache);
                 } else {
-                    ActionTravel.sortByProperty(words, flightList, locationList);
+                    ActionTravel.sortByProperty(words, catalog, routeCache);
                 }
+            } else if (words.length == 2 && words[1].equalsIgnoreCase("cache")) {
+                ActionTravel.showCacheInfo(routeCache);
             } else {
-                System.out.println("Usage: TRAVEL <from> <to> [cost/duration/stopovers/layover/flight_time]");
+                System.out.println("Usage: TRAVEL <from> <to> [cost/duration/stopovers/layover/flight_time] [seats <n>]");
+            }
+        }
+    }
+
+    // commands of SNAPSHOT
+    private void actionSnapshot(String command) {
+        String[] words = command.split("\\s+");
+        if (words.length >= 2 && words[1].equalsIgnoreCase("save")) {
+            Snapshot.save(words, locationList, catalog.getFlights(), locationId, flightId);
+        } else if (words.length >= 2 && words[1].equalsIgnoreCase("load")) {
+            Snapshot snapshot = Snapshot.load(words);
+            if (snapshot != null) {
+                locationList = snapshot.getLocationList();
+                catalog = snapshot.getCatalog();
+                locationId = snapshot.getLocationId();
+                flightId = snapshot.getFlightId();
+                routeCache.scheduleChanged();
+                catalog.setJournal(journal);
+                compactJournal(true);
             }
+        } else {
+            System.out.println("Usage: SNAPSHOT SAVE/LOAD <filename>");
         }
     }
 
     private void printHelpMessage() {
         System.out.println("FLIGHTS - list all available flights ordered by departure time, then departure location name\n" +
+                "FLIGHTS <offset> <limit> - list limit flights in the same order, skipping the first offset\n" +
                 "FLIGHT ADD <departure time> <from> <to> <capacity> - add a flight\n" +
                 "FLIGHT IMPORT/EXPORT <filename> - import/export flights to csv file\n" +
+                "FLIGHT IMPORT <filename> validate - import flights, lines that clash with the schedule are invalid\n" +
+                "FLIGHT IMPORT <filename> parallel - import a large file, parsing parts of it in parallel\n" +
+                "FLIGHT VALIDATE - list all flights that depart/arrive less than an hour apart at the same location\n" +
                 "FLIGHT <id> - view information about a flight (from->to, departure arrival times, current ticket price, capacity, passengers booked)\n" +
                 "FLIGHT <id> BOOK <num> - book a certain number of passengers for the flight at the current ticket price, and then adjust the ticket price to reflect the reduced capacity remaining. If no number is given, book 1 passenger. If the given number of bookings is more than the remaining capacity, only accept bookings until the capacity is full.\n" +
                 "FLIGHT <id> REMOVE - remove a flight from the schedule\n" +
@@ -92,6 +290,7 @@ public class FlightScheduler {
                 "SCHEDULE <location_name> - list all departing and arriving flights, in order of the time they arrive/depart\n" +
                 "DEPARTURES <location_name> - list all departing flights, in order of departure time\n" +
                 "ARRIVALS <location_name> - list all arriving flights, in order of arrival time\n" +
+                "SCHEDULE/DEPARTURES/ARRIVALS <location_name> [from <day> <hh:mm>] [to <day> <hh:mm>] - only the flights in that time window, which may wrap from Sunday to Monday\n" +
                 "\n" +
                 "TRAVEL <from> <to> [sort] [n] - list the nth possible flight route between a starting location and destination, with a maximum of 3 stopovers. Default ordering is for shortest overall duration. If n is not provided, display the first one in the order. If n is larger than the number of flights available, display the last one in the ordering.\n" +
                 "\n" +
@@ -101,6 +300,12 @@ public class FlightScheduler {
                 "TRAVEL <from> <to> stopovers - minimum stopovers\n" +
                 "TRAVEL <from> <to> layover - minimum layover time\n" +
                 "TRAVEL <from> <to> flight_time - minimum flight time\n" +
+                "TRAVEL <from> <to> [sort [n]/property] seats <n> - only routes whose flights all have at least n free seats\n" +
+                "TRAVEL <from> <to> [sort [n]/property] BOOK <n> - book n passengers on every flight of that route, or on none if one of them is too full\n" +
+                "TRAVEL CACHE - show entries, hits and misses of the route cache\n" +
+                "\n" +
+                "SNAPSHOT SAVE <filename> - save all locations and flights to a binary snapshot file\n" +
+                "SNAPSHOT LOAD <filename> - replace all locations and flights with the ones in a snapshot file\n" +
                 "\n" +
                 "HELP - outputs this help string.\n" +
                 "EXIT - end the program.");
@@ -112,15 +317,15 @@ public class FlightScheduler {
         if (words[0].equalsIgnoreCase("location")) {
             if (words.length >= 2) {
                 if (words[1].equals("add")) {
-                    int result = ActionLocation.addLocation(words, locationList, locationId);
+                    int result = ActionLocation.addLocation(words, locationList, locationId, catalog);
                     locationId = result > 0 ? result : locationId;
                 } else if (words[1].equals("import")) {
-                    int result = ActionLocation.importFile(words, locationList, locationId);
+                    int result = ActionLocation.importFile(words, locationList, locationId, catalog);
                     locationId = result > 0 ? result : locationId;
                 } else if (words[1].equals("export")) {
                     ActionLocation.exportFile(words, locationList);
                 } else {
-                    ActionLocation.viewLocation(words, locationList);
+                    ActionLocation.viewLocation(words, catalog);
                 }
             } else {
                 System.out.println("Usage:");
@@ -131,11 +336,11 @@ public class FlightScheduler {
         } else if (words[0].equalsIgnoreCase("locations")) {
             ActionLocation.listAllLocations(locationList);
         } else if (words[0].equalsIgnoreCase("schedule")) {
-            ActionLocation.scheduleLocation(words, locationList);
+            ActionLocation.scheduleLocation(words, catalog);
         } else if (words[0].equalsIgnoreCase("departures")) {
-            ActionLocation.departuresLocation(words, locationList);
+            ActionLocation.departuresLocation(words, catalog);
         } else if (words[0].equalsIgnoreCase("arrivals")) {
-            ActionLocation.arrivalsLocation(words, locationList);
+            ActionLocation.arrivalsLocation(words, catalog);
         } else {
             System.out.println("Invalid command. Type 'help' for a list of commands.");
         }
@@ -146,27 +351,29 @@ public class FlightScheduler {
         String[] words = command.split("\\s+");
         if (words[0].equalsIgnoreCase("flight")) {
             if (words.length >= 2) {
-                if (words[1].equals("add")) {
-                    int result = ActionFlight.addFlight(words, flightList, flightId, locationList);
+                if (words[1].equalsIgnoreCase("add")) {
+                    int result = ActionFlight.addFlight(words, flightId, catalog, routeCache);
                     flightId = result > 0 ? result : flightId;
-                } else if (words[1].equals("import")) {
-                    int result = ActionFlight.importFile(words, flightList, flightId, locationList);
+                } else if (words[1].equalsIgnoreCase("import")) {
+                    int result = ActionFlight.importFile(words, flightId, catalog, routeCache);
                     flightId = result > 0 ? result : flightId;
-                } else if (words[1].equals("export")) {
-                    ActionFlight.exportFile(words, flightList);
+                } else if (words[1].equalsIgnoreCase("export")) {
+                    ActionFlight.exportFile(words, catalog);
+                } else if (words[1].equalsIgnoreCase("validate")) {
+                    ActionFlight.validateSchedule(locationList);
                 } else {
                     if (words.length > 2) {
                         if (words[2].equalsIgnoreCase("book")) {
-                            ActionFlight.bookFlight(words, flightList);
+                            ActionFlight.bookFlight(words, catalog, routeCache);
                         } else if (words[2].equalsIgnoreCase("remove")) {
-                            ActionFlight.removeFlight(words, flightList);
+                            ActionFlight.removeFlight(words, catalog, routeCache);
                         } else if (words[2].equalsIgnoreCase("reset")) {
-                            ActionFlight.resetFlight(words, flightList);
+                            ActionFlight.resetFlight(words, catalog, routeCache);
                         } else {
-                            ActionFlight.viewFlight(words, flightList);
+                            ActionFlight.viewFlight(words, catalog);
                         }
                     } else {
-                        ActionFlight.viewFlight(words, flightList);
+                        ActionFlight.viewFlight(words, catalog);
                     }
                 }
             } else {
@@ -174,9 +381,11 @@ public class FlightScheduler {
                 System.out.println("FLIGHT <id> [BOOK/REMOVE/RESET] [num]");
                 System.out.println("FLIGHT ADD <departure time> <from> <to> <capacity>");
                 System.out.println("FLIGHT IMPORT/EXPORT <filename>");
+                System.out.println("FLIGHT IMPORT <filename> [validate] [parallel]");
+                System.out.println("FLIGHT VALIDATE");
             }
         } else if (words[0].equalsIgnoreCase("flights")) {
-            ActionFlight.listAllFlights(flightList);
+            ActionFlight.listAllFlights(words, catalog);
         } else {
             System.out.println("Invalid command. Type 'help' for a list of commands.");
         }
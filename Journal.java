@@ -0,0 +1,410 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of schedule changes, enabled with --journal <path>.
+ * <p>
+ * The journal file starts with a header holding a generation number, and the state at the
+ * start of that generation is the snapshot file &lt;path&gt;.&lt;generation&gt; (none for
+ * generation 0). Every location add, flight add/remove and change of passengers booked is
+ * appended as a record with its own CRC32. Appending only copies the record into a memory
+ * buffer; a flusher thread writes whatever has piled up and forces it to disk together
+ * (group commit), at least every FLUSH_MILLIS, so a crash loses at most that window.
+ * <p>
+ * When the journal grows past COMPACT_BYTES it is compacted: the current state is written
+ * as the snapshot of the next generation, then a new empty journal for that generation
+ * atomically replaces the old one. A crash at any point leaves either the old or the new
+ * pair of files. On startup the snapshot is loaded and the records are replayed up to the
+ * first torn or corrupt one.
+ * <p>
+ * Once a write fails or the journal is closed no more records are taken: the command that
+ * gets a record refused learns it from takeRefused, and the journal keeps the changes
+ * written before.
+ */
+public class Journal {
+    private static final int MAGIC = 0x464A524E; // FJRN
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final long FLUSH_MILLIS = 5;
+    private static final long COMPACT_BYTES = 64L << 20;
+
+    // record types
+    private static final byte LOCATION_ADD = 1;
+    private static final byte FLIGHT_ADD = 2;
+    private static final byte FLIGHT_REMOVE = 3;
+    private static final byte FLIGHT_BOOKED = 4;
+
+    private final Path path;
+    private long generation;
+    private FileChannel channel;
+    // bytes in the journal file, written or waiting in pending
+    private long size;
+    // records not written yet, guarded by this
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer writing = ByteBuffer.allocate(1 << 16);
+    // held while the channel is written, forced or replaced
+    private final Object ioLock = new Object();
+    private final Thread flusher;
+    private boolean closed;
+    private IOException failure;
+    // set for a thread that got a record refused, until it calls takeRefused
+    private final ThreadLocal<Boolean> refused = ThreadLocal.withInitial(() -> false);
+    private final CRC32 crc = new CRC32();
+
+    private Journal(Path path, long generation, FileChannel channel, long size) {
+        this.path = path;
+        this.generation = generation;
+        this.channel = channel;
+        this.size = size;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Open the journal at path, creating it if needed, and rebuild the state it records.
+     *
+     * @param recovered gets the recovered state at index 0
+     */
+    public static Journal open(Path path, Snapshot[] recovered) throws IOException {
+        long generation = 0;
+        if (!Files.exists(path)) {
+            writeEmpty(path, 0).close();
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole header
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Invalid journal file.");
+            }
+            generation = header.getLong(8);
+            Snapshot state = Snapshot.empty();
+            if (generation > 0) {
+                state = Snapshot.read(snapshotPath(path, generation));
+                if (state == null) {
+                    throw new IOException("Invalid journal snapshot.");
+                }
+            }
+            long end = replay(channel, state);
+            // drop a torn record at the end, new records go after the last good one
+            channel.truncate(end);
+            channel.position(end);
+            recovered[0] = state;
+            return new Journal(path, generation, channel, end);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Path snapshotPath(Path path, long generation) {
+        return path.resolveSibling(path.getFileName() + "." + generation);
+    }
+
+    // new journal file with just a header, written next to path and moved over it
+    private static FileChannel writeEmpty(Path path, long generation) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        channel.position(HEADER_SIZE);
+        return channel;
+    }
+
+    // apply the records after the header to state, return where the last good one ends
+    private static long replay(FileChannel channel, Snapshot state) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        Map<Integer, Location> locations = new HashMap<>();
+        for (Location location : state.getLocationList()) {
+            locations.put(location.getId(), location);
+        }
+        CRC32 crc = new CRC32();
+        int position = HEADER_SIZE;
+        boolean locationsAdded = false;
+        while (position + 8 <= fileSize) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + 8L + length > fileSize) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.duplicate().position(position + 8).limit(position + 8 + length));
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            ByteBuffer record = buffer.duplicate().position(position + 8).limit(position + 8 + length);
+            byte type = record.get();
+            if (type == LOCATION_ADD) {
+                int id = record.getInt();
+                double latitude = record.getDouble();
+                double longitude = record.getDouble();
+                double coefficient = record.getDouble();
+                Location location = new Location(id, getString(record), latitude, longitude, coefficient);
+                state.getLocationList().add(location);
+                state.getCatalog().addLocation(location);
+                locations.put(id, location);
+                state.setLocationId(Math.max(state.getLocationId(), id + 1));
+                locationsAdded = true;
+            } else if (type == FLIGHT_ADD) {
+                int id = record.getInt();
+                Flight flight = new Flight(id, record.getInt(), locations.get(record.getInt()),
+                        locations.get(record.getInt()), record.getInt(), record.getInt());
+                ActionFlight.addToSchedule(flight, state.getCatalog());
+                state.setFlightId(Math.max(state.getFlightId(), id + 1));
+            } else if (type == FLIGHT_REMOVE) {
+                Flight flight = state.getCatalog().getFlight(record.getInt());
+                if (flight != null) {
+                    ActionFlight.removeFromSchedule(flight, state.getCatalog());
+                }
+            } else if (type == FLIGHT_BOOKED) {
+                Flight flight = state.getCatalog().getFlight(record.getInt());
+                if (flight != null) {
+                    flight.setPassengersBooked(record.getInt());
+                }
+            } else {
+                break;
+            }
+            position += 8 + length;
+        }
+        if (locationsAdded) {
+            DistanceMatrix.build(state.getLocationList());
+        }
+        return position;
+    }
+
+    private static String getString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //region records
+    public synchronized void locationAdded(Location location) {
+        if (!accepting()) {
+            return;
+        }
+        byte[] name = location.getName().getBytes(StandardCharsets.UTF_8);
+        int start = begin(1 + 4 + 8 * 3 + 4 + name.length);
+        pending.put(LOCATION_ADD).putInt(location.getId()).putDouble(location.getLatitude())
+                .putDouble(location.getLongitude()).putDouble(location.getCoefficient())
+                .putInt(name.length).put(name);
+        end(start);
+    }
+
+    public synchronized void flightAdded(Flight flight) {
+        if (!accepting()) {
+            return;
+        }
+        int start = begin(1 + 4 * 6);
+        pending.put(FLIGHT_ADD).putInt(flight.getId()).putInt(flight.getDepartureTime())
+                .putInt(flight.getSource().getId()).putInt(flight.getDestination().getId())
+                .putInt(flight.getCapacity()).putInt(flight.getPassengersBooked());
+        end(start);
+    }
+
+    public synchronized void flightRemoved(Flight flight) {
+        if (!accepting()) {
+            return;
+        }
+        int start = begin(1 + 4);
+        pending.put(FLIGHT_REMOVE).putInt(flight.getId());
+        end(start);
+    }
+
+    // after a booking or reset, the new number of passengers booked is recorded
+    public synchronized void bookingChanged(Flight flight) {
+        if (!accepting()) {
+            return;
+        }
+        int start = begin(1 + 4 + 4);
+        pending.put(FLIGHT_BOOKED).putInt(flight.getId()).putInt(flight.getPassengersBooked());
+        end(start);
+    }
+
+    // false, and the record is refused, once a write failed or the journal is closed
+    private boolean accepting() {
+        if (failure != null || closed) {
+            refused.set(true);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a record of the calling thread was refused since the last call,
+     * the change it records is not in the journal
+     */
+    public boolean takeRefused() {
+        boolean wasRefused = refused.get();
+        refused.set(false);
+        return wasRefused;
+    }
+
+    // make room for a record of length bytes, write its length and return where it starts
+    private int begin(int length) {
+        if (pending.remaining() < length + 8) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length + 8));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        int start = pending.position();
+        pending.putInt(length).putInt(0);
+        return start;
+    }
+
+    // fill in the crc of the record and wake the flusher
+    private void end(int start) {
+        int end = pending.position();
+        crc.reset();
+        crc.update(pending.array(), start + 8, end - start - 8);
+        pending.putInt(start + 4, (int) crc.getValue());
+        size += end - start;
+        notifyAll();
+    }
+    //endregion
+
+    //region flush
+    // write and force what piled up, waiting a little so that records arriving together share one force
+    private void flushLoop() {
+        while (true) {
+            synchronized (this) {
+                while (!closed && pending.position() == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(FLUSH_MILLIS);
+                flush();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // kept in failure by flush
+                return;
+            }
+        }
+    }
+
+    // write pending records to the file and force them to disk, nothing more after a failure
+    private void flush() throws IOException {
+        synchronized (ioLock) {
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                ByteBuffer full = pending;
+                pending = writing;
+                writing = full;
+            }
+            try {
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                writing.clear();
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    // the records of the failed write are lost, do not hold on to them
+                    pending.clear();
+                }
+                throw e;
+            }
+        }
+    }
+
+    // true once enough records piled up to be worth a compaction
+    public synchronized boolean needsCompaction() {
+        return size > COMPACT_BYTES;
+    }
+
+    /**
+     * Start the next generation from the given state. Records not written yet go to the old
+     * journal first, so a crash while the snapshot is written loses none of them; once the new
+     * pair of files is in place the ones written since are dropped, the state already has
+     * their changes.
+     */
+    public void compact(List<Location> locationList, Collection<Flight> flightList,
+                        int locationId, int flightId) throws IOException {
+        synchronized (ioLock) {
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Journal closed.");
+                }
+            }
+            flush();
+            long next = generation + 1;
+            Path snapshot = snapshotPath(path, next);
+            Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+            Snapshot.write(temp, locationList, flightList, locationId, flightId);
+            Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            channel.close();
+            // the journal of the new generation replaces the old one in one step
+            channel = writeEmpty(path, next);
+            Files.deleteIfExists(snapshotPath(path, generation));
+            generation = next;
+            synchronized (this) {
+                pending.clear();
+                size = HEADER_SIZE;
+            }
+        }
+    }
+
+    /**
+     * Write everything that is left and stop the flusher.
+     *
+     * @throws IOException if the flusher failed earlier or the last write fails
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+    //endregion
+}
@@ -1,25 +1,50 @@
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
 
 public class Location implements Comparable<Location> {
     //region basic
+    private int id;
     private String name;
     private double latitude;
     private double longitude;
-    private List<Flight> arrivingFlights;
-    private List<Flight> departingFlights;
+    // insertion ordered, so removing a flight is O(1)
+    private Set<Flight> arrivingFlights;
+    private Set<Flight> departingFlights;
+    // departing/arriving flights by minute in week, for conflict checks and the boards
+    private TreeMap<Integer, List<Flight>> departureSlots;
+    private TreeMap<Integer, List<Flight>> arrivalSlots;
     private double coefficient;
 
-    public Location(String name, double lat, double lon, double coefficient) {
+    public Location(int id, String name, double lat, double lon, double coefficient) {
+        this.id = id;
         this.name = name;
         this.latitude = lat;
         this.longitude = lon;
-        this.arrivingFlights = new ArrayList<>();
-        this.departingFlights = new ArrayList<>();
+        this.arrivingFlights = new LinkedHashSet<>();
+        this.departingFlights = new LinkedHashSet<>();
+        this.departureSlots = new TreeMap<>();
+        this.arrivalSlots = new TreeMap<>();
         this.coefficient = coefficient;
+        updateTrig();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+        this.matrix = null;
     }
 
     public String getName() {
@@ -36,6 +61,7 @@ public class Location implements Comparable<Location> {
 
     public void setLatitude(double latitude) {
         this.latitude = latitude;
+        updateTrig();
     }
 
     public double getLongitude() {
@@ -44,22 +70,31 @@ public class Location implements Comparable<Location> {
 
     public void setLongitude(double longitude) {
         this.longitude = longitude;
+        updateTrig();
     }
 
-    public List<Flight> getArrivingFlights() {
+    public Collection<Flight> getArrivingFlights() {
         return arrivingFlights;
     }
 
-    public void setArrivingFlights(List<Flight> arrivingFlights) {
-        this.arrivingFlights = arrivingFlights;
+    public void setArrivingFlights(Collection<Flight> arrivingFlights) {
+        this.arrivingFlights = new LinkedHashSet<>();
+        this.arrivalSlots = new TreeMap<>();
+        for (Flight flight : arrivingFlights) {
+            addArrival(flight);
+        }
     }
 
-    public List<Flight> getDepartingFlights() {
+    public Collection<Flight> getDepartingFlights() {
         return departingFlights;
     }
 
-    public void setDepartingFlights(List<Flight> departingFlights) {
-        this.departingFlights = departingFlights;
+    public void setDepartingFlights(Collection<Flight> departingFlights) {
+        this.departingFlights = new LinkedHashSet<>();
+        this.departureSlots = new TreeMap<>();
+        for (Flight flight : departingFlights) {
+            addDeparture(flight);
+        }
     }
 
     public double getCoefficient() {
@@ -68,6 +103,12 @@ public class Location implements Comparable<Location> {
 
     public void setCoefficient(double coefficient) {
         this.coefficient = coefficient;
+        for (Flight flight : arrivingFlights) {
+            flight.invalidateTicketPrice();
+        }
+        for (Flight flight : departingFlights) {
+            flight.invalidateTicketPrice();
+        }
     }
     //endregion
 
@@ -76,7 +117,8 @@ public class Location implements Comparable<Location> {
     @Override
     public String toString() {
         return "Location{" +
-                "name='" + name + '\'' +
+                "id=" + id +
+                ", name='" + name + '\'' +
                 ", latitude=" + latitude +
                 ", longitude=" + longitude +
                 ", arrivingFlights=" + arrivingFlights.size() +
@@ -87,14 +129,23 @@ public class Location implements Comparable<Location> {
 
     // export to csv file
     public String toFileStr() {
-        String latitudeS = latitude == 0 ? String.format("%.1f", latitude) :
-                new BigDecimal(String.format("%.6f", latitude)).stripTrailingZeros().toString();
-        String longitudeS = longitude == 0 ? String.format("%.1f", longitude) :
-                new BigDecimal(String.format("%.6f", longitude)).stripTrailingZeros().toString();
+        String latitudeS = coordinateToFileStr(latitude);
+        String longitudeS = coordinateToFileStr(longitude);
         return String.format("%s,%s,%s,%.1f", name, latitudeS,
                 longitudeS, coefficient);
     }
 
+    // same text as toFileStr, without building it
+    public void writeFileStr(CsvWriter out) throws IOException {
+        out.write(name).write(',').writeCoordinate(latitude).write(',')
+                .writeCoordinate(longitude).write(',').writeOneDecimal(coefficient);
+    }
+
+    static String coordinateToFileStr(double coordinate) {
+        return coordinate == 0 ? String.format("%.1f", coordinate) :
+                new BigDecimal(String.format("%.6f", coordinate)).stripTrailingZeros().toString();
+    }
+
     // read line str from csv file, and return basic params
     // name, latitude, longitude, coefficient
     // if invalid, return null;
@@ -120,74 +171,242 @@ public class Location implements Comparable<Location> {
         return this.name.compareTo(o.getName());
     }
 
+    //region distance
+    // sin/cos of half the coordinates and cos of the latitude, in radians
+    private double sinHalfLat;
+    private double cosHalfLat;
+    private double sinHalfLon;
+    private double cosHalfLon;
+    private double cosLat;
+    // shared distance table of the last import, null if coordinates changed since
+    private DistanceMatrix matrix;
+
+    // called whenever the coordinates change
+    private void updateTrig() {
+        double lat = Math.toRadians(latitude), lon = Math.toRadians(longitude);
+        sinHalfLat = Math.sin(lat / 2);
+        cosHalfLat = Math.cos(lat / 2);
+        sinHalfLon = Math.sin(lon / 2);
+        cosHalfLon = Math.cos(lon / 2);
+        cosLat = Math.cos(lat);
+        matrix = null;
+        // arrival times change, so move the flights to their new arrival slots
+        List<Flight> flights = new ArrayList<>(arrivingFlights);
+        flights.addAll(departingFlights);
+        for (Flight flight : flights) {
+            flight.getDestination().removeArrival(flight);
+            flight.updateRoute();
+            flight.getDestination().addArrival(flight);
+        }
+    }
+
+    public void setMatrix(DistanceMatrix matrix) {
+        this.matrix = matrix;
+    }
+
     //Implement the Haversine formula - return value in kilometres
     public static double distance(Location l1, Location l2) {
-        double lat1 = l1.latitude, lon1 = l1.longitude;
-        double lat2 = l2.latitude, lon2 = l2.longitude;
-        double dLat = Math.toRadians(lat2 - lat1), dLon = Math.toRadians(lon2 - lon1);
-        lat1 = Math.toRadians(lat1);
-        lat2 = Math.toRadians(lat2);
+        DistanceMatrix matrix = l1.matrix;
+        if (matrix != null && matrix == l2.matrix) {
+            return matrix.get(l1.id, l2.id);
+        }
+        return haversine(l1, l2);
+    }
+
+    // sin((b - a) / 2) = sin(b / 2) cos(a / 2) - cos(b / 2) sin(a / 2), so no trig call per pair
+    static double haversine(Location l1, Location l2) {
+        double sinDLat = l2.sinHalfLat * l1.cosHalfLat - l2.cosHalfLat * l1.sinHalfLat;
+        double sinDLon = l2.sinHalfLon * l1.cosHalfLon - l2.cosHalfLon * l1.sinHalfLon;
         double R = 6371; // in kilometers
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.sin(dLon / 2) * Math.sin(dLon / 2) * Math.cos(lat1) * Math.cos(lat2);
+        double a = sinDLat * sinDLat + sinDLon * sinDLon * l1.cosLat * l2.cosLat;
         double c = 2 * Math.asin(Math.sqrt(a));
         return R * c;
     }
+    //endregion
 
     public void addArrival(Flight f) {
         arrivingFlights.add(f);
+        addSlot(arrivalSlots, f.getArriveTime(), f);
     }
 
     public void addDeparture(Flight f) {
         departingFlights.add(f);
+        addSlot(departureSlots, f.getDepartureTime(), f);
     }
 
     public void removeArrival(Flight f) {
-        arrivingFlights.remove(f);
+        if (arrivingFlights.remove(f)) {
+            removeSlot(arrivalSlots, f.getArriveTime(), f);
+        }
     }
 
     public void removeDeparture(Flight f) {
-        departingFlights.remove(f);
+        if (departingFlights.remove(f)) {
+            removeSlot(departureSlots, f.getDepartureTime(), f);
+        }
     }
 
-    // command schedule
-    public List<FlightInfo> getScheduleInfos() {
-        List<FlightInfo> list = new ArrayList<>();
-        for (Flight flight : arrivingFlights) {
-            FlightInfo info = new FlightInfo(flight.getId(), flight.getArriveTime(),
-                    "Arrival from", flight.getSource().name);
-            list.add(info);
+    private static void addSlot(TreeMap<Integer, List<Flight>> slots, int time, Flight f) {
+        slots.computeIfAbsent(time, k -> new ArrayList<>(1)).add(f);
+    }
+
+    // time is where f was added, unless it was changed through the Flight setters since
+    private static void removeSlot(TreeMap<Integer, List<Flight>> slots, int time, Flight f) {
+        List<Flight> list = slots.get(time);
+        if (list == null || !list.remove(f)) {
+            for (Map.Entry<Integer, List<Flight>> entry : slots.entrySet()) {
+                if (entry.getValue().remove(f)) {
+                    time = entry.getKey();
+                    list = entry.getValue();
+                    break;
+                }
+            }
         }
-        for (Flight flight : departingFlights) {
-            FlightInfo info = new FlightInfo(flight.getId(), flight.getDepartureTime(),
-                    "Departure to", flight.getDestination().name);
-            list.add(info);
+        if (list != null && list.isEmpty()) {
+            slots.remove(time);
         }
-        Collections.sort(list);
-        return list;
     }
 
-    // command arrivals
-    public List<FlightInfo> getArrivalsInfos() {
-        List<FlightInfo> list = new ArrayList<>();
-        for (Flight flight : arrivingFlights) {
-            FlightInfo info = new FlightInfo(flight.getId(), flight.getArriveTime(),
-                    "Arrival from", flight.getSource().name);
-            list.add(info);
+    // departing flight within an hour of time (either side, across the week), null if none
+    public Flight getDepartureConflict(int time) {
+        return findConflict(departureSlots, time);
+    }
+
+    // arriving flight within an hour of time (either side, across the week), null if none
+    public Flight getArrivalConflict(int time) {
+        return findConflict(arrivalSlots, time);
+    }
+
+    // checks the next flight after time first, then the last one at or before it
+    private static Flight findConflict(TreeMap<Integer, List<Flight>> slots, int time) {
+        if (slots.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Integer, List<Flight>> next = slots.higherEntry(time);
+        int nextTime;
+        if (next == null) {
+            next = slots.firstEntry();
+            nextTime = next.getKey() + 7 * 24 * 60;
+        } else {
+            nextTime = next.getKey();
+        }
+        if (nextTime - time < 60) {
+            return next.getValue().get(0);
         }
-        Collections.sort(list);
-        return list;
+        Map.Entry<Integer, List<Flight>> previous = slots.floorEntry(time);
+        int previousTime;
+        if (previous == null) {
+            previous = slots.lastEntry();
+            previousTime = previous.getKey() - 7 * 24 * 60;
+        } else {
+            previousTime = previous.getKey();
+        }
+        if (time - previousTime < 60) {
+            List<Flight> list = previous.getValue();
+            return list.get(list.size() - 1);
+        }
+        return null;
     }
 
-    // command departures
-    public List<FlightInfo> getDeparturesInfos() {
-        List<FlightInfo> list = new ArrayList<>();
-        for (Flight flight : departingFlights) {
-            FlightInfo info = new FlightInfo(flight.getId(), flight.getDepartureTime(),
-                    "Departure to", flight.getDestination().name);
-            list.add(info);
+    /**
+     * Pairs of departures/arrivals here that are less than an hour apart, across the end
+     * of the week too. The slot maps are already in time order, so they are merged and
+     * swept once, comparing each event only with the ones up to an hour after it.
+     *
+     * @return pairs of flight infos, the earlier one (in the week, from the first) first
+     */
+    public List<FlightInfo[]> getConflicts() {
+        int size = arrivingFlights.size() + departingFlights.size();
+        int[] times = new int[size];
+        FlightInfo[] infos = new FlightInfo[size];
+        int index = 0;
+        Iterator<Map.Entry<Integer, List<Flight>>> arrivals = arrivalSlots.entrySet().iterator();
+        Iterator<Map.Entry<Integer, List<Flight>>> departures = departureSlots.entrySet().iterator();
+        Map.Entry<Integer, List<Flight>> arrival = arrivals.hasNext() ? arrivals.next() : null;
+        Map.Entry<Integer, List<Flight>> departure = departures.hasNext() ? departures.next() : null;
+        while (arrival != null || departure != null) {
+            if (departure == null || (arrival != null && arrival.getKey() <= departure.getKey())) {
+                for (Flight flight : arrival.getValue()) {
+                    times[index] = arrival.getKey();
+                    infos[index++] = new FlightInfo(flight.getId(), arrival.getKey(),
+                            "Arrival from", flight.getSource().name);
+                }
+                arrival = arrivals.hasNext() ? arrivals.next() : null;
+            } else {
+                for (Flight flight : departure.getValue()) {
+                    times[index] = departure.getKey();
+                    infos[index++] = new FlightInfo(flight.getId(), departure.getKey(),
+                            "Departure to", flight.getDestination().name);
+                }
+                departure = departures.hasNext() ? departures.next() : null;
+            }
+        }
+        List<FlightInfo[]> conflicts = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            for (int k = 1; k < size; k++) {
+                int j = (i + k) % size;
+                int gap = times[j] - times[i] + (j < i ? 7 * 24 * 60 : 0);
+                if (gap >= 60) {
+                    break;
+                }
+                conflicts.add(new FlightInfo[]{infos[i], infos[j]});
+            }
+        }
+        return conflicts;
+    }
+
+    // whole week of the board
+    public void showBoard(boolean arrivals, boolean departures) {
+        showBoard(arrivals, departures, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Print the board rows of SCHEDULE/ARRIVALS/DEPARTURES between from and to (minutes in
+     * week, both included) in time order. If from is after to, the window wraps around the
+     * end of the week. The slot maps are kept sorted as flights are added and removed, so
+     * this merges two range views of them and only touches the rows it prints. On equal
+     * times arrivals come first, each in the order they were added.
+     */
+    public void showBoard(boolean arrivals, boolean departures, int from, int to) {
+        if (from <= to) {
+            showBoard(arrivals ? arrivalSlots.subMap(from, true, to, true) : null,
+                    departures ? departureSlots.subMap(from, true, to, true) : null);
+        } else {
+            showBoard(arrivals ? arrivalSlots.tailMap(from, true) : null,
+                    departures ? departureSlots.tailMap(from, true) : null);
+            showBoard(arrivals ? arrivalSlots.headMap(to, true) : null,
+                    departures ? departureSlots.headMap(to, true) : null);
+        }
+    }
+
+    // merge of the arrival and departure slots, either may be null
+    private static void showBoard(NavigableMap<Integer, List<Flight>> arrivalSlots,
+                                  NavigableMap<Integer, List<Flight>> departureSlots) {
+        Iterator<Map.Entry<Integer, List<Flight>>> arrivalIt = arrivalSlots != null ?
+                arrivalSlots.entrySet().iterator() : null;
+        Iterator<Map.Entry<Integer, List<Flight>>> departureIt = departureSlots != null ?
+                departureSlots.entrySet().iterator() : null;
+        Map.Entry<Integer, List<Flight>> arrival = next(arrivalIt);
+        Map.Entry<Integer, List<Flight>> departure = next(departureIt);
+        while (arrival != null || departure != null) {
+            if (departure == null || (arrival != null && arrival.getKey() <= departure.getKey())) {
+                for (Flight flight : arrival.getValue()) {
+                    FlightInfo.showInfo(flight.getId(), flight.getArriveTime(),
+                            "Arrival from", flight.getSource().name);
+                }
+                arrival = next(arrivalIt);
+            } else {
+                for (Flight flight : departure.getValue()) {
+                    FlightInfo.showInfo(flight.getId(), flight.getDepartureTime(),
+                            "Departure to", flight.getDestination().name);
+                }
+                departure = next(departureIt);
+            }
         }
-        Collections.sort(list);
-        return list;
+    }
+
+    private static Map.Entry<Integer, List<Flight>> next(Iterator<Map.Entry<Integer, List<Flight>>> it) {
+        return it != null && it.hasNext() ? it.next() : null;
     }
 
     // simple info of flight
@@ -218,25 +437,17 @@ public class Location implements Comparable<Location> {
 
         // show one info
         public void showInfo() {
+            showInfo(id, time, type, location);
+        }
+
+        // show one info without building a FlightInfo
+        public static void showInfo(int id, int time, String type, String location) {
             String info = String.format("%4d %-12s%s %s", id,
                     MyHelper.minuteInWeekToTimeStrSimple(time),
                     type, location);
             System.out.println(info);
         }
 
-        // deep copy
-        public FlightInfo copy() {
-            return new FlightInfo(id, time, type, location);
-        }
-
-        public void minusWeek() {
-            this.time -= 7 * 24 * 60;
-        }
-
-        public void plusWeek() {
-            this.time += 7 * 24 * 60;
-        }
-
         @Override
         public String toString() {
             return "FlightInfo{" +
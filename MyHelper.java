@@ -1,5 +1,8 @@
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 
 public final class MyHelper {
     private MyHelper() {
@@ -87,25 +90,32 @@ public final class MyHelper {
     }
     //endregion
 
-    //region find functions
-    // find flight by id, not found return null
-    public static Flight findFlightById(List<Flight> flightList, int id) {
-        for (Flight flight : flightList) {
-            if (flight.getId() == id) {
-                return flight;
-            }
+    //region checks of the test mains
+    // print the result of a check of a test main, a failed one ends main with an exception
+    static void check(String result, boolean ok) {
+        if (!ok) {
+            throw new IllegalStateException(result + " FAILED");
         }
-        return null;
+        System.out.println(result + " OK");
     }
 
-    // find location by name, not found return null
-    public static Location findLocationByName(List<Location> locationList, String name) {
-        for (Location location : locationList) {
-            if (location.getName().equalsIgnoreCase(name)) {
-                return location;
-            }
+    // run body(0..count - 1) on count threads, and rethrow the first exception of any of them
+    static void runThreads(int count, IntConsumer body) throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < count; t++) {
+            int index = t;
+            Thread thread = new Thread(() -> body.accept(index));
+            thread.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Check thread failed", failure.get());
         }
-        return null;
     }
     //endregion
 
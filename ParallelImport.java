@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * FLIGHT IMPORT <filename> parallel: the file is memory mapped in chunks that end at line
+ * ends, and every chunk is parsed by its own FlightCsvReader on the common pool. Nothing is
+ * added to the schedule here; the caller walks the chunks in file order, so flight ids and
+ * the imported/invalid counts come out the same as a sequential import.
+ */
+public class ParallelImport {
+    private static final long MIN_CHUNK = 1 << 20;
+    private static final long MAX_CHUNK = 1 << 28;
+
+    // parsed lines of one chunk, valid lines in file order
+    public static class Rows {
+        private int size;
+        private int invalid;
+        private int[] departureTimes = new int[256];
+        private Location[] sources = new Location[256];
+        private Location[] destinations = new Location[256];
+        private int[] capacities = new int[256];
+        private int[] passengersBooked = new int[256];
+
+        public int size() {
+            return size;
+        }
+
+        // lines that were not VALID and not skipped
+        public int getInvalid() {
+            return invalid;
+        }
+
+        public Flight toFlight(int i, int id) {
+            return new Flight(id, departureTimes[i], sources[i], destinations[i],
+                    capacities[i], passengersBooked[i]);
+        }
+
+        private void add(FlightCsvReader reader) {
+            if (size == departureTimes.length) {
+                int length = size * 2;
+                departureTimes = Arrays.copyOf(departureTimes, length);
+                sources = Arrays.copyOf(sources, length);
+                destinations = Arrays.copyOf(destinations, length);
+                capacities = Arrays.copyOf(capacities, length);
+                passengersBooked = Arrays.copyOf(passengersBooked, length);
+            }
+            departureTimes[size] = reader.getDepartureTime();
+            sources[size] = reader.getSource();
+            destinations[size] = reader.getDestination();
+            capacities[size] = reader.getCapacity();
+            passengersBooked[size] = reader.getPassengersBooked();
+            size++;
+        }
+    }
+
+    /**
+     * Parse the file in parallel.
+     *
+     * @return rows of every chunk, in file order
+     */
+    public static List<Rows> read(String filename, Catalog catalog) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int threads = Runtime.getRuntime().availableProcessors();
+            long chunk = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, size / (threads * 4L) + 1));
+            List<Long> bounds = new ArrayList<>();
+            bounds.add(0L);
+            long start = 0;
+            while (start < size) {
+                start = lineEnd(channel, Math.min(size, start + chunk), size);
+                bounds.add(start);
+            }
+            ByteBuffer[] buffers = new ByteBuffer[bounds.size() - 1];
+            for (int i = 0; i < buffers.length; i++) {
+                long from = bounds.get(i);
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, bounds.get(i + 1) - from);
+            }
+            Rows[] rows = new Rows[buffers.length];
+            IntStream.range(0, buffers.length).parallel().forEach(i -> rows[i] = parse(buffers[i], catalog));
+            return Arrays.asList(rows);
+        }
+    }
+
+    // first position after the line end at or after position, "\r\n" counts as one line end
+    private static long lineEnd(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        boolean carriageReturn = false;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return size;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (carriageReturn) {
+                    return b == '\n' ? position + i + 1 : position + i;
+                }
+                if (b == '\n') {
+                    return position + i + 1;
+                }
+                carriageReturn = b == '\r';
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static Rows parse(ByteBuffer buffer, Catalog catalog) {
+        Rows rows = new Rows();
+        FlightCsvReader reader = new FlightCsvReader(buffer, catalog);
+        try {
+            int result = reader.next();
+            while (result != FlightCsvReader.END) {
+                if (result == FlightCsvReader.VALID) {
+                    rows.add(reader);
+                } else if (result == FlightCsvReader.INVALID) {
+                    rows.invalid++;
+                }
+                result = reader.next();
+            }
+        } catch (IOException e) {
+            // a chunk is never refilled from a channel
+            throw new UncheckedIOException(e);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of TRAVEL results, keyed by (from, to, sort property, seats).
+ * Every entry remembers the schedule version it was computed at, and entries whose
+ * ordering depends on ticket prices or whose flights were picked by free seats also
+ * remember the booking version, so FLIGHT ADD/IMPORT/REMOVE and FLIGHT BOOK/RESET make
+ * the affected entries stale.
+ * The map and counters are guarded by this cache, but searches run outside of it, so
+ * connections of --server look up routes at the same time.
+ */
+public class RouteCache {
+    public static final int MAX_ENTRIES = 1024;
+
+    private final Map<String, Entry> entries;
+    private long scheduleVersion;
+    private long bookingVersion;
+    private long hits;
+    private long misses;
+
+    public RouteCache() {
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    // ranked paths of one query
+    private static class Entry {
+        final long scheduleVersion;
+        final long bookingVersion;
+        // stale after any booking, the prices or free seats it was chosen by may have changed
+        final boolean bookingSensitive;
+        final List<ActionTravel.FlightPath> paths;
+        // paths holds every path of the ordering, not only the first ones
+        final boolean complete;
+
+        Entry(long scheduleVersion, long bookingVersion, boolean bookingSensitive,
+              List<ActionTravel.FlightPath> paths, boolean complete) {
+            this.scheduleVersion = scheduleVersion;
+            this.bookingVersion = bookingVersion;
+            this.bookingSensitive = bookingSensitive;
+            this.paths = paths;
+            this.complete = complete;
+        }
+    }
+
+    // a flight was added or removed
+    public synchronized void scheduleChanged() {
+        scheduleVersion++;
+    }
+
+    // the passengers booked of a flight changed, so its ticket price did too
+    public synchronized void bookingChanged() {
+        bookingVersion++;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // TRAVEL <from> <to> <property> [seats <n>], null if there is no path
+    public ActionTravel.FlightPath findBest(Location start, Location end, RouteSearch.Criterion criterion, int seats) {
+        Entry entry;
+        long schedule;
+        long booking;
+        synchronized (this) {
+            entry = getValid(key(start, end, criterion.name(), seats));
+            if (entry != null) {
+                hits++;
+                return entry.paths.isEmpty() ? null : entry.paths.get(0);
+            }
+            misses++;
+            // versions from before the search, a change during it leaves the entries stale
+            schedule = scheduleVersion;
+            booking = bookingVersion;
+        }
+        // one search finds the best path of every property, keep all of them
+        RouteSearch.Criterion[] criteria = RouteSearch.Criterion.values();
+        boolean[] priceTies = new boolean[criteria.length];
+        ActionTravel.FlightPath[] best = RouteSearch.findBest(start, end, seats, priceTies);
+        synchronized (this) {
+            for (int i = 0; i < criteria.length; i++) {
+                List<ActionTravel.FlightPath> paths = new ArrayList<>(1);
+                if (best[i] != null) {
+                    paths.add(best[i]);
+                }
+                Entry e = new Entry(schedule, booking, priceTies[i] || seats > 0, paths, true);
+                entries.put(key(start, end, criteria[i].name(), seats), e);
+            }
+        }
+        return best[criterion.ordinal()];
+    }
+
+    // TRAVEL <from> <to> sort <n> [seats <n>], the last path if there are fewer, null if there is none
+    public ActionTravel.FlightPath findNth(Location start, Location end, int n, int seats) {
+        String key = key(start, end, "sort", seats);
+        Entry entry;
+        long schedule;
+        long booking;
+        synchronized (this) {
+            entry = getValid(key);
+            if (entry != null && (entry.complete || entry.paths.size() > n)) {
+                hits++;
+            } else {
+                entry = null;
+                misses++;
+            }
+            schedule = scheduleVersion;
+            booking = bookingVersion;
+        }
+        if (entry == null) {
+            int count = n < Integer.MAX_VALUE ? n + 1 : n;
+            List<ActionTravel.FlightPath> paths = RouteSearch.findFirst(start, end, seats, count);
+            // the duration order does not look at ticket prices, only the seat filter looks at bookings
+            entry = new Entry(schedule, booking, seats > 0, paths, paths.size() < count);
+            synchronized (this) {
+                entries.put(key, entry);
+            }
+        }
+        if (entry.paths.isEmpty()) {
+            return null;
+        }
+        return entry.paths.get(Math.min(n, entry.paths.size() - 1));
+    }
+
+    // call with this cache locked
+    private Entry getValid(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.scheduleVersion != scheduleVersion ||
+                (entry.bookingSensitive && entry.bookingVersion != bookingVersion)) {
+            return null;
+        }
+        return entry;
+    }
+
+    private static String key(Location start, Location end, String property, int seats) {
+        return start.getName() + "," + end.getName() + "," + property + "," + Math.max(0, seats);
+    }
+}
@@ -0,0 +1,384 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Round-based (RAPTOR style) route search used by TRAVEL.
+ * Round k holds the paths with exactly k legs, and every location keeps a bag
+ * with the best partial path per sorting property for each arrival time, so
+ * dominated partial paths are dropped instead of being extended.
+ * TRAVEL <from> <to> sort <n> uses the best-first Enumerator instead.
+ * When the origin has many departing flights, both searches are split by first
+ * leg on the common ForkJoinPool and the per-task results are merged.
+ * With seats > 0 (TRAVEL ... seats <n>) flights with fewer free seats are never taken
+ * as a leg, so they are left out while searching instead of filtered afterwards.
+ */
+public class RouteSearch {
+    // max 3 stopovers, so a route has at most 4 legs (rounds)
+    public static final int MAX_LEGS = 4;
+    // origins with fewer departing flights are searched on the calling thread
+    public static final int PARALLEL_THRESHOLD = 16;
+
+    // sorting properties of TRAVEL, each one is a total order on paths
+    public enum Criterion implements Comparator<ActionTravel.FlightPath> {
+        COST,
+        DURATION,
+        STOPOVERS,
+        LAYOVER,
+        FLIGHT_TIME;
+
+        // cost/duration/stopovers/layover/flight_time, not found return null
+        public static Criterion fromProperty(String property) {
+            for (Criterion criterion : values()) {
+                if (criterion.name().equalsIgnoreCase(property)) {
+                    return criterion;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Compare by this property, then by the tie-breaks of the TRAVEL ordering.
+         * Remaining ties are broken by fewer legs and then by flight ids, which is
+         * the order all paths used to be listed in before sorting.
+         */
+        @Override
+        public int compare(ActionTravel.FlightPath o1, ActionTravel.FlightPath o2) {
+            int result;
+            switch (this) {
+                case COST:
+                    result = Double.compare(o1.getTotalCost(), o2.getTotalCost());
+                    if (result == 0) {
+                        result = Integer.compare(o1.getTotalDuration(), o2.getTotalDuration());
+                    }
+                    break;
+                case DURATION:
+                    result = Integer.compare(o1.getTotalDuration(), o2.getTotalDuration());
+                    if (result == 0) {
+                        result = Double.compare(o1.getTotalCost(), o2.getTotalCost());
+                    }
+                    break;
+                case STOPOVERS:
+                    result = thenDurationCost(Integer.compare(o1.getStopovers(), o2.getStopovers()), o1, o2);
+                    break;
+                case LAYOVER:
+                    result = thenDurationCost(Integer.compare(o1.getLayoverTime(), o2.getLayoverTime()), o1, o2);
+                    break;
+                default:
+                    result = thenDurationCost(Integer.compare(o1.getFlightTime(), o2.getFlightTime()), o1, o2);
+                    break;
+            }
+            if (result == 0) {
+                result = Integer.compare(o1.getNum(), o2.getNum());
+            }
+            if (result == 0) {
+                result = ActionTravel.FlightPath.compareIds(o1, o2);
+            }
+            return result;
+        }
+
+        /**
+         * Whether only the ticket prices (or the tie-breaks after them) order o1 and o2,
+         * so that booking seats could change which one comes first.
+         */
+        public boolean isPriceTie(ActionTravel.FlightPath o1, ActionTravel.FlightPath o2) {
+            if (this == COST) {
+                return true;
+            }
+            if (o1.getTotalDuration() != o2.getTotalDuration()) {
+                return false;
+            }
+            switch (this) {
+                case STOPOVERS:
+                    return o1.getStopovers() == o2.getStopovers();
+                case LAYOVER:
+                    return o1.getLayoverTime() == o2.getLayoverTime();
+                case FLIGHT_TIME:
+                    return o1.getFlightTime() == o2.getFlightTime();
+                default:
+                    return true;
+            }
+        }
+
+        private static int thenDurationCost(int result, ActionTravel.FlightPath o1, ActionTravel.FlightPath o2) {
+            if (result == 0) {
+                result = Integer.compare(o1.getTotalDuration(), o2.getTotalDuration());
+            }
+            if (result == 0) {
+                result = Double.compare(o1.getTotalCost(), o2.getTotalCost());
+            }
+            return result;
+        }
+    }
+
+    // whether flight has seats free seats, any flight does for seats <= 0
+    static boolean hasSeats(Flight flight, int seats) {
+        return seats <= 0 || flight.getCapacity() - flight.getPassengersBooked() >= seats;
+    }
+
+    // flights leaving location with seats free seats
+    private static Collection<Flight> departing(Location location, int seats) {
+        Collection<Flight> flights = location.getDepartingFlights();
+        if (seats <= 0) {
+            return flights;
+        }
+        List<Flight> result = new ArrayList<>(flights.size());
+        for (Flight flight : flights) {
+            if (hasSeats(flight, seats)) {
+                result.add(flight);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Best path from start to end for every criterion, indexed by Criterion.ordinal().
+     * An entry is null if there is no path with at most MAX_LEGS legs whose flights all
+     * have seats free seats.
+     * priceTies[i] is set if some choice for criterion i was decided by ticket prices.
+     */
+    public static ActionTravel.FlightPath[] findBest(Location start, Location end, int seats, boolean[] priceTies) {
+        Collection<Flight> firstLegs = departing(start, seats);
+        if (firstLegs.size() < PARALLEL_THRESHOLD) {
+            return findBest(firstLegs, end, seats, priceTies);
+        }
+        BestTask task = new BestTask(new ArrayList<>(firstLegs), end, seats);
+        ActionTravel.FlightPath[] best = ForkJoinPool.commonPool().invoke(task);
+        System.arraycopy(task.priceTies, 0, priceTies, 0, priceTies.length);
+        return best;
+    }
+
+    // best path per criterion among the paths starting with one of firstLegs
+    private static ActionTravel.FlightPath[] findBest(Collection<Flight> firstLegs, Location end, int seats,
+                                                      boolean[] priceTies) {
+        Criterion[] criteria = Criterion.values();
+        ActionTravel.FlightPath[] best = new ActionTravel.FlightPath[criteria.length];
+        List<ActionTravel.FlightPath> marked = new ArrayList<>();
+        for (Flight flight : firstLegs) {
+            marked.add(new ActionTravel.FlightPath(flight));
+        }
+        for (int round = 1; round <= MAX_LEGS && !marked.isEmpty(); round++) {
+            // location -> arrival time -> best path per criterion
+            Map<Location, Map<Integer, ActionTravel.FlightPath[]>> bags = new HashMap<>();
+            for (ActionTravel.FlightPath path : marked) {
+                Location location = path.getLastLocation();
+                if (location.equals(end)) {
+                    offer(best, path, criteria, priceTies);
+                } else if (round < MAX_LEGS) {
+                    int arriveTime = path.getLastFlight().getArriveTime();
+                    ActionTravel.FlightPath[] bag = bags.computeIfAbsent(location, k -> new HashMap<>())
+                            .computeIfAbsent(arriveTime, k -> new ActionTravel.FlightPath[criteria.length]);
+                    offer(bag, path, criteria, priceTies);
+                }
+            }
+            marked = new ArrayList<>();
+            for (Map<Integer, ActionTravel.FlightPath[]> byTime : bags.values()) {
+                for (ActionTravel.FlightPath[] bag : byTime.values()) {
+                    for (int i = 0; i < bag.length; i++) {
+                        if (bag[i] != null && !isBefore(bag, i)) {
+                            for (Flight flight : bag[i].getLastLocation().getDepartingFlights()) {
+                                if (hasSeats(flight, seats)) {
+                                    marked.add(bag[i].extend(flight));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Paths from start to end one at a time, in the order of TRAVEL <from> <to> sort:
+     * shortest total duration first, ties by fewer legs and then flight ids.
+     * Partial paths are expanded best first, and since extending a path never makes
+     * it shorter or gives it fewer legs, a finished path that reaches the head of the
+     * queue is the next one in the ordering.
+     */
+    public static class Enumerator {
+        private static final Comparator<ActionTravel.FlightPath> ORDER = (o1, o2) -> {
+            int result = Integer.compare(o1.getTotalDuration(), o2.getTotalDuration());
+            if (result == 0) {
+                result = Integer.compare(o1.getNum(), o2.getNum());
+            }
+            if (result == 0) {
+                result = ActionTravel.FlightPath.compareIds(o1, o2);
+            }
+            return result;
+        };
+
+        private final Location end;
+        private final int seats;
+        private final PriorityQueue<ActionTravel.FlightPath> queue;
+
+        public Enumerator(Location start, Location end) {
+            this(start, end, 0);
+        }
+
+        // only the paths whose flights all have seats free seats
+        public Enumerator(Location start, Location end, int seats) {
+            this(departing(start, seats), end, seats);
+        }
+
+        // only the paths starting with one of firstLegs
+        Enumerator(Collection<Flight> firstLegs, Location end, int seats) {
+            this.end = end;
+            this.seats = seats;
+            this.queue = new PriorityQueue<>(ORDER);
+            for (Flight flight : firstLegs) {
+                queue.add(new ActionTravel.FlightPath(flight));
+            }
+        }
+
+        // next path in the ordering, null if there are no more
+        public ActionTravel.FlightPath next() {
+            while (!queue.isEmpty()) {
+                ActionTravel.FlightPath path = queue.poll();
+                Location location = path.getLastLocation();
+                if (location.equals(end)) {
+                    return path;
+                }
+                if (path.getNum() < MAX_LEGS) {
+                    for (Flight flight : location.getDepartingFlights()) {
+                        if (hasSeats(flight, seats)) {
+                            queue.add(path.extend(flight));
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    // first count paths in duration order, fewer if there are not that many
+    public static List<ActionTravel.FlightPath> findFirst(Location start, Location end, int seats, int count) {
+        Collection<Flight> firstLegs = departing(start, seats);
+        if (firstLegs.size() < PARALLEL_THRESHOLD) {
+            return findFirst(firstLegs, end, seats, count);
+        }
+        // every task keeps its own first count paths, so the merged list holds the global ones
+        List<ActionTravel.FlightPath> paths = ForkJoinPool.commonPool().invoke(
+                new FirstTask(new ArrayList<>(firstLegs), end, seats, count));
+        paths.sort(Enumerator.ORDER);
+        return paths.size() > count ? new ArrayList<>(paths.subList(0, count)) : paths;
+    }
+
+    // first count paths in duration order among the paths starting with one of firstLegs
+    private static List<ActionTravel.FlightPath> findFirst(Collection<Flight> firstLegs, Location end,
+                                                          int seats, int count) {
+        Enumerator enumerator = new Enumerator(firstLegs, end, seats);
+        List<ActionTravel.FlightPath> paths = new ArrayList<>();
+        while (paths.size() < count) {
+            ActionTravel.FlightPath path = enumerator.next();
+            if (path == null) {
+                break;
+            }
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    // splits first legs in halves until one is left, then merges the best path per criterion
+    private static class BestTask extends RecursiveTask<ActionTravel.FlightPath[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Flight> firstLegs;
+        private final Location end;
+        private final int seats;
+        private final boolean[] priceTies = new boolean[Criterion.values().length];
+
+        BestTask(List<Flight> firstLegs, Location end, int seats) {
+            this.firstLegs = firstLegs;
+            this.end = end;
+            this.seats = seats;
+        }
+
+        @Override
+        protected ActionTravel.FlightPath[] compute() {
+            if (firstLegs.size() <= 1) {
+                return findBest(firstLegs, end, seats, priceTies);
+            }
+            int middle = firstLegs.size() / 2;
+            BestTask left = new BestTask(firstLegs.subList(0, middle), end, seats);
+            BestTask right = new BestTask(firstLegs.subList(middle, firstLegs.size()), end, seats);
+            left.fork();
+            ActionTravel.FlightPath[] best = right.compute();
+            ActionTravel.FlightPath[] other = left.join();
+            Criterion[] criteria = Criterion.values();
+            for (int i = 0; i < criteria.length; i++) {
+                priceTies[i] = right.priceTies[i] || left.priceTies[i];
+            }
+            for (int i = 0; i < criteria.length; i++) {
+                if (other[i] != null) {
+                    offer(best, other[i], criteria, priceTies);
+                }
+            }
+            return best;
+        }
+    }
+
+    // splits first legs in halves until one is left, then concatenates the first paths of each
+    private static class FirstTask extends RecursiveTask<List<ActionTravel.FlightPath>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Flight> firstLegs;
+        private final Location end;
+        private final int seats;
+        private final int count;
+
+        FirstTask(List<Flight> firstLegs, Location end, int seats, int count) {
+            this.firstLegs = firstLegs;
+            this.end = end;
+            this.seats = seats;
+            this.count = count;
+        }
+
+        @Override
+        protected List<ActionTravel.FlightPath> compute() {
+            if (firstLegs.size() <= 1) {
+                return findFirst(firstLegs, end, seats, count);
+            }
+            int middle = firstLegs.size() / 2;
+            FirstTask left = new FirstTask(firstLegs.subList(0, middle), end, seats, count);
+            FirstTask right = new FirstTask(firstLegs.subList(middle, firstLegs.size()), end, seats, count);
+            left.fork();
+            List<ActionTravel.FlightPath> paths = right.compute();
+            paths.addAll(left.join());
+            return paths;
+        }
+    }
+
+    // keep path in every slot of the bag it improves
+    private static void offer(ActionTravel.FlightPath[] bag, ActionTravel.FlightPath path,
+                              Criterion[] criteria, boolean[] priceTies) {
+        for (int i = 0; i < criteria.length; i++) {
+            if (bag[i] == null) {
+                bag[i] = path;
+            } else {
+                if (!priceTies[i] && criteria[i].isPriceTie(path, bag[i])) {
+                    priceTies[i] = true;
+                }
+                if (criteria[i].compare(path, bag[i]) < 0) {
+                    bag[i] = path;
+                }
+            }
+        }
+    }
+
+    // whether bag[i] is also stored in an earlier slot, so it is only extended once
+    private static boolean isBefore(ActionTravel.FlightPath[] bag, int i) {
+        for (int j = 0; j < i; j++) {
+            if (bag[j] == bag[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,333 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * --server <port|unix:path>: the console commands over local connections, many at once.
+ * Every connection gets the same prompt and output as the console and is served by its own
+ * thread, a virtual thread where the runtime has them, against the one shared schedule
+ * (see FlightScheduler.execute for the locking). The commands print to System.out, so
+ * System.out is replaced by a stream that sends each thread's output to its connection.
+ * EXIT closes the connection; the server runs until the process is stopped. Any line
+ * client drives it, e.g. nc localhost <port> or nc -U <path>; ServerClient runs several
+ * clients at once.
+ */
+public class Server {
+    private static final String UNIX_PREFIX = "unix:";
+
+    private final FlightScheduler scheduler;
+    private final String address;
+
+    public Server(FlightScheduler scheduler, String address) {
+        this.scheduler = scheduler;
+        this.address = address;
+    }
+
+    public void run() {
+        ServerSocketChannel server;
+        try {
+            server = open();
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error opening server on " + address + ".");
+            return;
+        }
+        PrintStream console = System.out;
+        ConnectionOutput output = new ConnectionOutput(console);
+        ExecutorService executor = newConnectionExecutor();
+        // kill/Ctrl-C: stop accepting, let running commands finish and write the rest of the journal
+        Thread shutdown = new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+            scheduler.closeJournal();
+            if (address.startsWith(UNIX_PREFIX)) {
+                try {
+                    Files.deleteIfExists(Paths.get(address.substring(UNIX_PREFIX.length())));
+                } catch (IOException e) {
+                    // left for the next start to remove
+                }
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdown);
+        System.setOut(output);
+        console.println("Listening on " + address + ".");
+        try {
+            while (true) {
+                SocketChannel channel = server.accept();
+                executor.execute(() -> serve(channel, output));
+            }
+        } catch (ClosedChannelException e) {
+            // closed by the shutdown hook
+        } catch (IOException e) {
+            console.println("Error accepting connection.");
+        } finally {
+            // System.out stays the ConnectionOutput, connections may still be running commands
+            executor.shutdown();
+        }
+    }
+
+    // local tcp port, or a unix domain socket for unix:<path>
+    private ServerSocketChannel open() throws IOException {
+        if (address.startsWith(UNIX_PREFIX)) {
+            Path path = Paths.get(address.substring(UNIX_PREFIX.length()));
+            // a socket file left by a server that was killed
+            Files.deleteIfExists(path);
+            ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(path), 1024);
+            return server;
+        }
+        int port = Integer.parseInt(address);
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        return server;
+    }
+
+    // one virtual thread per connection on runtimes that have them (Java 21), else a cached pool
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // the console loop of FlightScheduler.run for one connection
+    private void serve(SocketChannel channel, ConnectionOutput output) {
+        try (SocketChannel c = channel) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(c)));
+            PrintStream out = new PrintStream(new BufferedOutputStream(Channels.newOutputStream(c), 1 << 16));
+            output.set(out);
+            while (true) {
+                out.print("User: ");
+                // the whole output of a command is sent at once, when the client is asked for the next
+                out.flush();
+                String line = reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                if (!scheduler.execute(line)) {
+                    out.println("Connection closed.");
+                    break;
+                }
+                out.println();
+            }
+            out.flush();
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            output.remove();
+        }
+    }
+
+    /**
+     * System.out while serving: every call goes to the stream set for the calling thread,
+     * or to the console for threads that have none.
+     */
+    private static class ConnectionOutput extends PrintStream {
+        private final ThreadLocal<PrintStream> streams = new ThreadLocal<>();
+        private final PrintStream console;
+
+        ConnectionOutput(PrintStream console) {
+            super(console);
+            this.console = console;
+        }
+
+        void set(PrintStream stream) {
+            streams.set(stream);
+        }
+
+        void remove() {
+            streams.remove();
+        }
+
+        private PrintStream target() {
+            PrintStream stream = streams.get();
+            return stream != null ? stream : console;
+        }
+
+        @Override
+        public void write(int b) {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) {
+            target().write(buf, off, len);
+        }
+
+        @Override
+        public void write(byte[] buf) throws IOException {
+            target().write(buf);
+        }
+
+        @Override
+        public void flush() {
+            target().flush();
+        }
+
+        @Override
+        public void close() {
+            target().close();
+        }
+
+        @Override
+        public boolean checkError() {
+            return target().checkError();
+        }
+
+        @Override
+        public void print(boolean b) {
+            target().print(b);
+        }
+
+        @Override
+        public void print(char c) {
+            target().print(c);
+        }
+
+        @Override
+        public void print(int i) {
+            target().print(i);
+        }
+
+        @Override
+        public void print(long l) {
+            target().print(l);
+        }
+
+        @Override
+        public void print(float f) {
+            target().print(f);
+        }
+
+        @Override
+        public void print(double d) {
+            target().print(d);
+        }
+
+        @Override
+        public void print(char[] s) {
+            target().print(s);
+        }
+
+        @Override
+        public void print(String s) {
+            target().print(s);
+        }
+
+        @Override
+        public void print(Object obj) {
+            target().print(obj);
+        }
+
+        @Override
+        public void println() {
+            target().println();
+        }
+
+        @Override
+        public void println(boolean x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(char x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(int x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(long x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(float x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(double x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(char[] x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(String x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(Object x) {
+            target().println(x);
+        }
+
+        @Override
+        public PrintStream printf(String format, Object... args) {
+            target().printf(format, args);
+            return this;
+        }
+
+        @Override
+        public PrintStream printf(Locale l, String format, Object... args) {
+            target().printf(l, format, args);
+            return this;
+        }
+
+        @Override
+        public PrintStream format(String format, Object... args) {
+            target().format(format, args);
+            return this;
+        }
+
+        @Override
+        public PrintStream format(Locale l, String format, Object... args) {
+            target().format(l, format, args);
+            return this;
+        }
+
+        @Override
+        public PrintStream append(CharSequence csq) {
+            target().append(csq);
+            return this;
+        }
+
+        @Override
+        public PrintStream append(CharSequence csq, int start, int end) {
+            target().append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public PrintStream append(char c) {
+            target().append(c);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test client of --server: connects clients at once, sends every one of them the commands of
+ * a file and reads its whole output.
+ * <pre>
+ * java ServerClient &lt;port|unix:path&gt; &lt;commands file&gt; [clients] [same]
+ * </pre>
+ * Every output must end with "Connection closed.", so the file should have an EXIT, and the
+ * lines after it are not sent. With same, which suits files that only read the schedule, all
+ * outputs must also be equal.
+ * The first output is printed, and a failed check ends main with an exception.
+ */
+public class ServerClient {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java ServerClient <port|unix:path> <commands file> [clients] [same]");
+            return;
+        }
+        String address = args[0];
+        byte[] commands = upToExit(Files.readAllLines(Paths.get(args[1]), Charset.defaultCharset()));
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        boolean same = args.length > 3 && args[3].equalsIgnoreCase("same");
+
+        byte[][] outputs = new byte[clients][];
+        Exception[] failures = new Exception[clients];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    outputs[index] = session(address, commands);
+                } catch (IOException | UncheckedIOException | InterruptedException e) {
+                    failures[index] = e;
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < clients; i++) {
+            if (failures[i] != null) {
+                throw new IllegalStateException("Client " + i + " failed.", failures[i]);
+            }
+            String output = new String(outputs[i], Charset.defaultCharset());
+            if (!output.endsWith("Connection closed." + System.lineSeparator())) {
+                throw new IllegalStateException("Client " + i + " was not closed by EXIT.");
+            }
+            if (same && !Arrays.equals(outputs[0], outputs[i])) {
+                throw new IllegalStateException("Client " + i + " got different output from client 0.");
+            }
+        }
+        System.out.print(new String(outputs[0], Charset.defaultCharset()));
+        System.out.printf("%d clients OK.%n", clients);
+    }
+
+    // the lines up to the first EXIT, the server closes the connection there and would reset it
+    // for lines it left unread
+    private static byte[] upToExit(List<String> lines) {
+        StringBuilder commands = new StringBuilder();
+        for (String line : lines) {
+            commands.append(line).append(System.lineSeparator());
+            if (line.equalsIgnoreCase("exit")) {
+                break;
+            }
+        }
+        return commands.toString().getBytes(Charset.defaultCharset());
+    }
+
+    // send all commands and read until the server closes the connection
+    private static byte[] session(String address, byte[] commands) throws IOException, InterruptedException {
+        try (SocketChannel channel = connect(address)) {
+            // the commands are sent while the output is read, a server that cannot send the output
+            // of a large file would stop reading it
+            Thread writer = new Thread(() -> {
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(commands);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.shutdownOutput();
+                } catch (IOException e) {
+                    // the server closed the connection early, which the output shows
+                }
+            });
+            writer.start();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ByteBuffer read = ByteBuffer.allocate(1 << 16);
+            while (channel.read(read) >= 0) {
+                output.write(read.array(), 0, read.position());
+                read.clear();
+            }
+            writer.join();
+            return output.toByteArray();
+        }
+    }
+
+    // same addresses as Server: a local tcp port, or unix:<path>
+    private static SocketChannel connect(String address) throws IOException {
+        if (address.startsWith("unix:")) {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(address.substring("unix:".length())));
+            return channel;
+        }
+        return SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address)));
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary image of the whole schedule for SNAPSHOT SAVE/LOAD. After a fixed header the file
+ * holds one primitive column per field, locations first, flights after, and the UTF-8 name
+ * table last:
+ * <pre>
+ * header:    magic, version, location count, flight count, next location id, next flight id,
+ *            name table length, crc32 of everything after the header
+ * locations: id[], name offset[count + 1], latitude[], longitude[], coefficient[]
+ * flights:   id[], departure time[], source index[], destination index[], capacity[], booked[]
+ * names:     bytes
+ * </pre>
+ * Source/destination are indexes into the location columns. Flights are stored in id
+ * order, so loading adds them to their locations in the order they were added.
+ */
+public class Snapshot {
+    private static final int MAGIC = 0x46534E50; // FSNP
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8 * 4;
+
+    private final List<Location> locationList;
+    private final Catalog catalog;
+    private int locationId;
+    private int flightId;
+
+    private Snapshot(List<Location> locationList, Catalog catalog, int locationId, int flightId) {
+        this.locationList = locationList;
+        this.catalog = catalog;
+        this.locationId = locationId;
+        this.flightId = flightId;
+    }
+
+    public List<Location> getLocationList() {
+        return locationList;
+    }
+
+    public Catalog getCatalog() {
+        return catalog;
+    }
+
+    public int getLocationId() {
+        return locationId;
+    }
+
+    public void setLocationId(int locationId) {
+        this.locationId = locationId;
+    }
+
+    public int getFlightId() {
+        return flightId;
+    }
+
+    public void setFlightId(int flightId) {
+        this.flightId = flightId;
+    }
+
+    // state of a new scheduler
+    public static Snapshot empty() {
+        return new Snapshot(new ArrayList<>(), new Catalog(), 0, 0);
+    }
+
+    // SNAPSHOT SAVE <filename>
+    public static void save(String[] words, List<Location> locationList, Collection<Flight> flightList,
+                            int locationId, int flightId) {
+        if (words.length < 3) {
+            System.out.println("Error writing file.");
+            return;
+        }
+        try {
+            write(Paths.get(words[2]), locationList, flightList, locationId, flightId);
+        } catch (IOException e) {
+            System.out.println("Error writing file.");
+            return;
+        }
+        System.out.printf("Saved %d locations and %d flights.%n", locationList.size(), flightList.size());
+    }
+
+    // SNAPSHOT LOAD <filename>, null if it could not be read
+    public static Snapshot load(String[] words) {
+        if (words.length < 3) {
+            System.out.println("Error reading file.");
+            return null;
+        }
+        Snapshot snapshot;
+        try {
+            snapshot = read(Paths.get(words[2]));
+        } catch (IOException e) {
+            System.out.println("Error reading file.");
+            return null;
+        }
+        if (snapshot == null) {
+            System.out.println("Invalid snapshot file.");
+            return null;
+        }
+        System.out.printf("Loaded %d locations and %d flights.%n",
+                snapshot.locationList.size(), snapshot.catalog.getFlights().size());
+        return snapshot;
+    }
+
+    public static void write(Path path, List<Location> locationList, Collection<Flight> flightList,
+                             int locationId, int flightId) throws IOException {
+        int locationCount = locationList.size();
+        int flightCount = flightList.size();
+        byte[][] names = new byte[locationCount][];
+        // flights refer to their locations by list index
+        Map<Location, Integer> indexes = new IdentityHashMap<>();
+        int nameLength = 0;
+        for (int i = 0; i < locationCount; i++) {
+            Location location = locationList.get(i);
+            names[i] = location.getName().getBytes(StandardCharsets.UTF_8);
+            nameLength += names[i].length;
+            indexes.put(location, i);
+        }
+        long size = HEADER_SIZE + 4L * (2L * locationCount + 1) + 8L * 3 * locationCount
+                + 4L * 6 * flightCount + nameLength;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Schedule too large for a snapshot.");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.position(HEADER_SIZE);
+        for (Location location : locationList) {
+            buffer.putInt(location.getId());
+        }
+        int offset = 0;
+        for (byte[] name : names) {
+            buffer.putInt(offset);
+            offset += name.length;
+        }
+        buffer.putInt(offset);
+        for (Location location : locationList) {
+            buffer.putDouble(location.getLatitude());
+        }
+        for (Location location : locationList) {
+            buffer.putDouble(location.getLongitude());
+        }
+        for (Location location : locationList) {
+            buffer.putDouble(location.getCoefficient());
+        }
+        for (Flight flight : flightList) {
+            buffer.putInt(flight.getId());
+        }
+        for (Flight flight : flightList) {
+            buffer.putInt(flight.getDepartureTime());
+        }
+        for (Flight flight : flightList) {
+            buffer.putInt(indexes.get(flight.getSource()));
+        }
+        for (Flight flight : flightList) {
+            buffer.putInt(indexes.get(flight.getDestination()));
+        }
+        for (Flight flight : flightList) {
+            buffer.putInt(flight.getCapacity());
+        }
+        for (Flight flight : flightList) {
+            buffer.putInt(flight.getPassengersBooked());
+        }
+        for (byte[] name : names) {
+            buffer.put(name);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, buffer.capacity() - HEADER_SIZE);
+        buffer.putInt(0, MAGIC)
+                .putInt(4, VERSION)
+                .putInt(8, locationCount)
+                .putInt(12, flightCount)
+                .putInt(16, locationId)
+                .putInt(20, flightId)
+                .putInt(24, nameLength)
+                .putInt(28, (int) crc.getValue());
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Map the file and rebuild the location list, the catalog and the location adjacency in one
+     * pass over the flight columns.
+     *
+     * @return null if the header, size or checksum do not match
+     */
+    public static Snapshot read(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return null;
+        }
+        int locationCount = buffer.getInt(8);
+        int flightCount = buffer.getInt(12);
+        int nameLength = buffer.getInt(24);
+        if (locationCount < 0 || flightCount < 0 || nameLength < 0 ||
+                HEADER_SIZE + 4L * (2L * locationCount + 1) + 8L * 3 * locationCount
+                        + 4L * 6 * flightCount + nameLength != buffer.capacity()) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.position(HEADER_SIZE));
+        if ((int) crc.getValue() != buffer.getInt(28)) {
+            return null;
+        }
+        int ids = HEADER_SIZE;
+        int offsets = ids + 4 * locationCount;
+        int latitudes = offsets + 4 * (locationCount + 1);
+        int longitudes = latitudes + 8 * locationCount;
+        int coefficients = longitudes + 8 * locationCount;
+        int flightIds = coefficients + 8 * locationCount;
+        int departures = flightIds + 4 * flightCount;
+        int sources = departures + 4 * flightCount;
+        int destinations = sources + 4 * flightCount;
+        int capacities = destinations + 4 * flightCount;
+        int booked = capacities + 4 * flightCount;
+        int nameTable = booked + 4 * flightCount;
+
+        Catalog catalog = new Catalog();
+        List<Location> locationList = new ArrayList<>(locationCount);
+        byte[] name = new byte[0];
+        for (int i = 0; i < locationCount; i++) {
+            int start = buffer.getInt(offsets + 4 * i);
+            int end = buffer.getInt(offsets + 4 * i + 4);
+            if (start < 0 || end < start || end > nameLength) {
+                return null;
+            }
+            if (name.length < end - start) {
+                name = new byte[end - start];
+            }
+            buffer.get(nameTable + start, name, 0, end - start);
+            Location location = new Location(buffer.getInt(ids + 4 * i),
+                    new String(name, 0, end - start, StandardCharsets.UTF_8),
+                    buffer.getDouble(latitudes + 8 * i), buffer.getDouble(longitudes + 8 * i),
+                    buffer.getDouble(coefficients + 8 * i));
+            locationList.add(location);
+            catalog.addLocation(location);
+        }
+        for (int i = 0; i < flightCount; i++) {
+            int source = buffer.getInt(sources + 4 * i);
+            int destination = buffer.getInt(destinations + 4 * i);
+            if (source < 0 || source >= locationCount || destination < 0 || destination >= locationCount) {
+                return null;
+            }
+            Flight flight = new Flight(buffer.getInt(flightIds + 4 * i), buffer.getInt(departures + 4 * i),
+                    locationList.get(source), locationList.get(destination),
+                    buffer.getInt(capacities + 4 * i), buffer.getInt(booked + 4 * i));
+            ActionFlight.addToSchedule(flight, catalog);
+        }
+        DistanceMatrix.build(locationList);
+        return new Snapshot(locationList, catalog, buffer.getInt(16), buffer.getInt(20));
+    }
+}